@@ -0,0 +1,259 @@
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This abstract class holds the parts of a Photo that do not depend on how pixels are stored.
+ * It contains the name, height and width attributes and the legacy getPixels and setPixel.
+ * equals and hashCode are defined on the packed pixel values in row-major order,
+ * so two images with the same pixels are equal whatever their storage.
+ * hashCode comes from a fingerprint that is computed once and cached until the next write.
+ * The histogram and the reduced copies used for resizing are kept until the next write too.
+ * Images that read this one's pixels lazily, such as views, are recorded as its readers
+ * while they are alive, so it is not changed in place under them.
+ */
+public abstract class AbstractPhoto implements Photo {
+
+  private final String name;
+  protected final int height;
+  protected final int width;
+  private int[][][] snapshot;
+  private volatile long fingerprint;
+  private volatile long[][] histogram;
+  private volatile Photo[] pyramid;
+  private final List<WeakReference<Photo>> readers = new ArrayList<>();
+
+  /**
+   * Constructor for the AbstractPhoto class for initialization.
+   * @param name Takes in the name for the Photo.
+   * @param width Takes in the width for the Photo.
+   * @param height Takes in the height for the Photo.
+   */
+  protected AbstractPhoto(String name, int width, int height) {
+    this.name = name;
+    this.height = height;
+    this.width = width;
+  }
+
+  /**
+   * Must be called by subclasses whenever pixels are written.
+   * The cached values are volatile, so each is only cleared when it is set, to keep a
+   * volatile write out of every pixel written.
+   */
+  protected void changed() {
+    snapshot = null;
+    if (histogram != null) {
+      histogram = null;
+    }
+    if (pyramid != null) {
+      pyramid = null;
+    }
+    if (fingerprint != 0) {
+      fingerprint = 0;
+    }
+  }
+
+  @Override
+  public long fingerprint() {
+    long result = fingerprint;
+    if (result == 0) {
+      result = width * 0x9E3779B97F4A7C15L + height;
+      int[] row = new int[width];
+      for (int i = 0; i < height; i++) {
+        getRGB(0, i, width, 1, row, 0, width);
+        for (int rgb : row) {
+          result = result * 0x9E3779B97F4A7C15L + rgb;
+        }
+      }
+      result ^= result >>> 33;
+      result *= 0xFF51AFD7ED558CCDL;
+      result ^= result >>> 33;
+      result = result == 0 ? 1 : result;
+      fingerprint = result;
+    }
+    return result;
+  }
+
+  /**
+   * Gets the histogram last stored with cacheHistogram, if no pixel was written since.
+   * @return The red, green and blue counts of each value, or null. Must not be modified.
+   */
+  long[][] cachedHistogram() {
+    return histogram;
+  }
+
+  /**
+   * Keeps the histogram of the current pixels until the next write.
+   * @param histogram The red, green and blue counts of each value. Must not be modified.
+   */
+  void cacheHistogram(long[][] histogram) {
+    this.histogram = histogram;
+  }
+
+  /**
+   * Gets the pyramid last stored with cachePyramid, if no pixel was written since.
+   * @return This image followed by copies of half the size of the one before, or null.
+   *     Must not be modified.
+   */
+  Photo[] cachedPyramid() {
+    return pyramid;
+  }
+
+  /**
+   * Keeps reduced copies of the current pixels until the next write.
+   * @param pyramid This image followed by copies of half the size of the one before.
+   *     Must not be modified.
+   */
+  void cachePyramid(Photo[] pyramid) {
+    this.pyramid = pyramid;
+  }
+
+  /**
+   * Records that an image reads the pixels of this one whenever it is read, for as long as
+   * that image is alive. The record does not keep it alive.
+   * @param reader The image.
+   */
+  void addReader(Photo reader) {
+    synchronized (readers) {
+      readers.removeIf(ref -> ref.get() == null);
+      readers.add(new WeakReference<>(reader));
+    }
+  }
+
+  /**
+   * Checks if any image that reads the pixels of this one is still alive.
+   * @return True if writing to this image could change another image.
+   */
+  boolean hasReaders() {
+    synchronized (readers) {
+      readers.removeIf(ref -> ref.get() == null);
+      return !readers.isEmpty();
+    }
+  }
+
+  /**
+   * Checks if an image is this one or reads its pixels, directly or through other readers.
+   * @param image The image.
+   * @return True if writing to this image could change that image.
+   */
+  boolean isReadBy(Photo image) {
+    if (image == this) {
+      return true;
+    }
+    List<Photo> live = new ArrayList<>();
+    synchronized (readers) {
+      for (WeakReference<Photo> ref : readers) {
+        Photo reader = ref.get();
+        if (reader != null) {
+          live.add(reader);
+        }
+      }
+    }
+    for (Photo reader : live) {
+      if (reader == image
+          || reader instanceof AbstractPhoto && ((AbstractPhoto) reader).isReadBy(image)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Helper function that tells two images apart by their fingerprints, if both are known.
+   * @param that The other image.
+   * @return True if both fingerprints are already computed and differ.
+   */
+  protected boolean fingerprintsDiffer(Photo that) {
+    if (!(that instanceof AbstractPhoto)) {
+      return false;
+    }
+    long mine = fingerprint;
+    long theirs = ((AbstractPhoto) that).fingerprint;
+    return mine != 0 && theirs != 0 && mine != theirs;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof Photo)) {
+      return false;
+    }
+    Photo that = (Photo) other;
+    if (width != that.getWidth() || height != that.getHeight() || fingerprintsDiffer(that)) {
+      return false;
+    }
+    int[] row = new int[width];
+    int[] otherRow = new int[width];
+    for (int i = 0; i < height; i++) {
+      getRGB(0, i, width, 1, row, 0, width);
+      that.getRGB(0, i, width, 1, otherRow, 0, width);
+      if (!Arrays.equals(row, otherRow)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(fingerprint());
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int[][][] getPixels() {
+    if (snapshot == null) {
+      int[][][] copy = new int[width][height][];
+      for (int i = 0; i < height; i++) {
+        for (int j = 0; j < width; j++) {
+          int rgb = getRGB(j, i);
+          copy[j][i] = new int[]{rgb >> 16 & 0xff, rgb >> 8 & 0xff, rgb & 0xff};
+        }
+      }
+      snapshot = copy;
+    }
+    return snapshot;
+  }
+
+  @Override
+  public void getRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    for (int i = 0; i < h; i++) {
+      for (int j = 0; j < w; j++) {
+        rgbArray[offset + i * scansize + j] = getRGB(startX + j, startY + i);
+      }
+    }
+  }
+
+  @Override
+  public void setRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    for (int i = 0; i < h; i++) {
+      for (int j = 0; j < w; j++) {
+        setRGB(startX + j, startY + i, rgbArray[offset + i * scansize + j]);
+      }
+    }
+  }
+
+  @Override
+  public void setPixel(int x, int y, int[] rgb) {
+    setRGB(x, y, (rgb[0] & 0xff) << 16 | (rgb[1] & 0xff) << 8 | rgb[2] & 0xff);
+  }
+}
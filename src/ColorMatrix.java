@@ -0,0 +1,237 @@
+/**
+ * This class is an affine color transform, a 3x4 matrix that maps the red, green and blue
+ * channels of a pixel and a constant 1 to the new channels. Brighten, sepia, and the red,
+ * green, blue, luma and intensity components are all of this form, and a chain of them is
+ * built with then and applied as one pass over the image.
+ * A step is folded into the matrix before it when that matrix can't leave 0..255, so no
+ * clamping is lost; otherwise the chain keeps both stages and applies them one after the
+ * other to each run of pixels while it is in cache.
+ * Each stage is evaluated in fixed-point int arithmetic, truncated and clamped to 0..255.
+ * The fixed-point sums are biased up by their largest rounding error, so results that are
+ * exact integers, like the intensity of a grey pixel, are not truncated to one less.
+ */
+public final class ColorMatrix implements PixelOp {
+
+  private static final int MAX_SHIFT = 16;
+
+  private final ColorMatrix before;
+  private final double[] matrix;
+  private final int[] fixed;
+  private final int[] bias;
+  private final int shift;
+
+  /**
+   * Constructor for the ColorMatrix class for initialization.
+   * The shift is the largest, up to 16, that keeps every sum within half the int range,
+   * which leaves room for the rounding bias.
+   * @param before The stage applied first, or null.
+   * @param matrix The 12 entries, row by row: red, green and blue results, each the
+   *     weights of red, green and blue followed by the constant.
+   * @throws IllegalArgumentException if the sums can't fit in an int even without a shift.
+   */
+  private ColorMatrix(ColorMatrix before, double[] matrix) {
+    this.before = before;
+    this.matrix = matrix;
+    double largest = 0;
+    for (int row = 0; row < 3; row++) {
+      double bound = Math.abs(matrix[row * 4 + 3]) + 1;
+      for (int col = 0; col < 3; col++) {
+        bound += 255 * Math.abs(matrix[row * 4 + col]);
+      }
+      largest = Math.max(largest, bound);
+    }
+    if (largest >= Integer.MAX_VALUE / 2) {
+      throw new IllegalArgumentException("Color matrix entries are too large");
+    }
+    int s = MAX_SHIFT;
+    while (s > 0 && largest * (1L << s) >= Integer.MAX_VALUE / 2) {
+      s--;
+    }
+    this.shift = s;
+    this.fixed = new int[12];
+    for (int i = 0; i < 12; i++) {
+      fixed[i] = (int) Math.round(Math.scalb(matrix[i], s));
+    }
+    this.bias = new int[3];
+    for (int row = 0; row < 3; row++) {
+      double error = Math.abs(fixed[row * 4 + 3] - Math.scalb(matrix[row * 4 + 3], s));
+      for (int col = 0; col < 3; col++) {
+        error += 255 * Math.abs(fixed[row * 4 + col] - Math.scalb(matrix[row * 4 + col], s));
+      }
+      bias[row] = (int) Math.ceil(error);
+    }
+  }
+
+  /**
+   * Creates a color matrix from its rows.
+   * @param rows Three rows of four entries, the weights of red, green and blue and the
+   *     constant added, for the red, green and blue results.
+   * @return The color matrix.
+   * @throws IllegalArgumentException if the matrix is not 3x4, has a non-finite entry, or
+   *     is too large to evaluate in int arithmetic.
+   */
+  public static ColorMatrix of(double[][] rows) {
+    if (rows.length != 3) {
+      throw new IllegalArgumentException("A color matrix has 3 rows");
+    }
+    double[] matrix = new double[12];
+    for (int row = 0; row < 3; row++) {
+      if (rows[row].length != 4) {
+        throw new IllegalArgumentException("A color matrix has 4 columns");
+      }
+      for (int col = 0; col < 4; col++) {
+        if (!Double.isFinite(rows[row][col])) {
+          throw new IllegalArgumentException("Color matrix entries must be finite");
+        }
+        matrix[row * 4 + col] = rows[row][col];
+      }
+    }
+    return new ColorMatrix(null, matrix);
+  }
+
+  /**
+   * Creates the matrix that adds a constant to every channel.
+   * @param intensity The constant.
+   * @return The brighten matrix.
+   */
+  public static ColorMatrix brighten(int intensity) {
+    return of(new double[][]{
+        {1, 0, 0, intensity},
+        {0, 1, 0, intensity},
+        {0, 0, 1, intensity}
+    });
+  }
+
+  /**
+   * Creates the sepia tone matrix.
+   * @return The sepia matrix.
+   */
+  public static ColorMatrix sepia() {
+    return of(new double[][]{
+        {0.393, 0.769, 0.189, 0},
+        {0.349, 0.686, 0.168, 0},
+        {0.272, 0.534, 0.131, 0}
+    });
+  }
+
+  /**
+   * Creates the matrix of a greyscale component.
+   * @param component_name red, green, blue, luma or intensity.
+   * @return The component matrix, or null for value and unknown components, which are not
+   *     affine.
+   */
+  public static ColorMatrix component(String component_name) {
+    double[] weights;
+    if ("red".equals(component_name)) {
+      weights = new double[]{1, 0, 0};
+    } else if ("green".equals(component_name)) {
+      weights = new double[]{0, 1, 0};
+    } else if ("blue".equals(component_name)) {
+      weights = new double[]{0, 0, 1};
+    } else if ("luma".equals(component_name)) {
+      weights = new double[]{0.2126, 0.7152, 0.0722};
+    } else if ("intensity".equals(component_name)) {
+      weights = new double[]{1 / 3.0, 1 / 3.0, 1 / 3.0};
+    } else {
+      return null;
+    }
+    double[] row = {weights[0], weights[1], weights[2], 0};
+    return of(new double[][]{row, row, row});
+  }
+
+  /**
+   * Chains this transform followed by another one.
+   * The second matrix is folded into the last stage of this one when that stage always
+   * gives values in 0..255, and otherwise becomes a stage of its own.
+   * @param next The transform applied to the result of this one.
+   * @return The transform of both.
+   * @throws IllegalArgumentException if a folded matrix is too large.
+   */
+  public ColorMatrix then(ColorMatrix next) {
+    if (next.before != null) {
+      return then(next.before).then(new ColorMatrix(null, next.matrix));
+    }
+    if (!staysInRange()) {
+      return new ColorMatrix(this, next.matrix);
+    }
+    double[] product = new double[12];
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 4; col++) {
+        double sum = col == 3 ? next.get(row, 3) : 0;
+        for (int k = 0; k < 3; k++) {
+          sum += next.get(row, k) * get(k, col);
+        }
+        product[row * 4 + col] = sum;
+      }
+    }
+    return new ColorMatrix(before, product);
+  }
+
+  /**
+   * Gets one entry of the matrix of the last stage.
+   * @param row 0, 1 or 2 for the red, green or blue result.
+   * @param col 0, 1 or 2 for the weight of red, green or blue, 3 for the constant.
+   * @return The entry.
+   */
+  public double get(int row, int col) {
+    return matrix[row * 4 + col];
+  }
+
+  /**
+   * Gets the number of stages, one more than the number of places the chain clamps.
+   * @return The number of passes over each run of pixels.
+   */
+  public int stages() {
+    return before == null ? 1 : before.stages() + 1;
+  }
+
+  /**
+   * Helper function that checks if the last stage maps every pixel into 0..255.
+   * @return True if no result of the last stage is ever clamped.
+   */
+  private boolean staysInRange() {
+    for (int row = 0; row < 3; row++) {
+      double low = get(row, 3);
+      double high = get(row, 3);
+      for (int col = 0; col < 3; col++) {
+        low += 255 * Math.min(0, get(row, col));
+        high += 255 * Math.max(0, get(row, col));
+      }
+      if (low < 0 || high >= 256) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void apply(int[] rgbArray, int from, int to) {
+    if (before != null) {
+      before.apply(rgbArray, from, to);
+    }
+    // coefficients are copied to locals: rgbArray is also an int[], so the compiler
+    // can't keep array elements in registers across the stores
+    int m0 = fixed[0];
+    int m1 = fixed[1];
+    int m2 = fixed[2];
+    int m3 = fixed[3] + bias[0];
+    int m4 = fixed[4];
+    int m5 = fixed[5];
+    int m6 = fixed[6];
+    int m7 = fixed[7] + bias[1];
+    int m8 = fixed[8];
+    int m9 = fixed[9];
+    int m10 = fixed[10];
+    int m11 = fixed[11] + bias[2];
+    int s = shift;
+    for (int i = from; i < to; i++) {
+      int r = rgbArray[i] >> 16 & 0xff;
+      int g = rgbArray[i] >> 8 & 0xff;
+      int b = rgbArray[i] & 0xff;
+      int newR = ColorOps.clamp(m0 * r + m1 * g + m2 * b + m3 >> s);
+      int newG = ColorOps.clamp(m4 * r + m5 * g + m6 * b + m7 >> s);
+      int newB = ColorOps.clamp(m8 * r + m9 * g + m10 * b + m11 >> s);
+      rgbArray[i] = (newR << 16) | (newG << 8) | newB;
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/**
+ * This class holds the per-pixel color operations as loops over primitive arrays, either
+ * packed 0xRRGGBB ints or the byte planes of a PlanarPhoto.
+ * Every loop body is straight-line arithmetic with no calls or branches that depend on the
+ * data, so HotSpot's superword pass can turn it into SIMD instructions where the hardware
+ * has them, and it runs as a plain unrolled scalar loop where it does not. Clamping uses
+ * the branch-free clamp and max below rather than Math.min and Math.max.
+ * Brighten on packed pixels adds to all three channels of a pixel at once, with the
+ * channels spread out so each one has room for its carry. The results are exactly those of
+ * the per-pixel formulas, including the double arithmetic of sepia and luma.
+ */
+public final class ColorOps {
+
+  private ColorOps() {
+  }
+
+  /**
+   * Brightens packed pixels, clamping each channel to 0..255.
+   * Red and blue are added together in two 16-bit lanes and green on its own, then every
+   * lane that carried out (or borrowed, when darkening) is saturated.
+   * @param rgbArray The packed pixels.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   * @param intensity The value added to every channel.
+   */
+  public static void brighten(int[] rgbArray, int from, int to, int intensity) {
+    int k = Math.min(255, Math.abs(intensity));
+    int redBlue = k * 0x010001;
+    int green = k << 8;
+    if (intensity >= 0) {
+      for (int i = from; i < to; i++) {
+        int rb = (rgbArray[i] & 0xff00ff) + redBlue;
+        int g = (rgbArray[i] & 0x00ff00) + green;
+        int rbCarry = rb & 0x1000100;
+        int gCarry = g & 0x10000;
+        rb = (rb | rbCarry - (rbCarry >>> 8)) & 0xff00ff;
+        g = (g | gCarry - (gCarry >>> 8)) & 0x00ff00;
+        rgbArray[i] = rb | g;
+      }
+    } else {
+      for (int i = from; i < to; i++) {
+        int rb = (rgbArray[i] & 0xff00ff | 0x1000100) - redBlue;
+        int g = (rgbArray[i] & 0x00ff00 | 0x10000) - green;
+        int rbKeep = rb & 0x1000100;
+        int gKeep = g & 0x10000;
+        rb &= rbKeep - (rbKeep >>> 8);
+        g &= gKeep - (gKeep >>> 8);
+        rgbArray[i] = rb | g;
+      }
+    }
+  }
+
+  /**
+   * Brightens one plane of a planar image, clamping to 0..255.
+   * @param src The source plane.
+   * @param dst The destination plane.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   * @param intensity The value added to every pixel.
+   */
+  public static void brighten(byte[] src, byte[] dst, int from, int to, int intensity) {
+    for (int i = from; i < to; i++) {
+      dst[i] = (byte) clamp((src[i] & 0xff) + intensity);
+    }
+  }
+
+  /**
+   * Converts packed pixels to sepia tone.
+   * @param rgbArray The packed pixels.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   */
+  public static void sepia(int[] rgbArray, int from, int to) {
+    for (int i = from; i < to; i++) {
+      int r = rgbArray[i] >> 16 & 0xff;
+      int g = rgbArray[i] >> 8 & 0xff;
+      int b = rgbArray[i] & 0xff;
+      int newR = clamp((int) (0.393 * r + 0.769 * g + 0.189 * b));
+      int newG = clamp((int) (0.349 * r + 0.686 * g + 0.168 * b));
+      int newB = clamp((int) (0.272 * r + 0.534 * g + 0.131 * b));
+      rgbArray[i] = (newR << 16) | (newG << 8) | newB;
+    }
+  }
+
+  /**
+   * Converts the planes of a planar image to sepia tone.
+   * @param red The source red plane.
+   * @param green The source green plane.
+   * @param blue The source blue plane.
+   * @param newRed The destination red plane.
+   * @param newGreen The destination green plane.
+   * @param newBlue The destination blue plane.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   */
+  public static void sepia(byte[] red, byte[] green, byte[] blue, byte[] newRed,
+      byte[] newGreen, byte[] newBlue, int from, int to) {
+    for (int i = from; i < to; i++) {
+      int r = red[i] & 0xff;
+      int g = green[i] & 0xff;
+      int b = blue[i] & 0xff;
+      newRed[i] = (byte) clamp((int) (0.393 * r + 0.769 * g + 0.189 * b));
+      newGreen[i] = (byte) clamp((int) (0.349 * r + 0.686 * g + 0.168 * b));
+      newBlue[i] = (byte) clamp((int) (0.272 * r + 0.534 * g + 0.131 * b));
+    }
+  }
+
+  /**
+   * Chooses the operation that turns packed pixels into grey pixels of one component.
+   * The component is resolved here once, not for every pixel.
+   * @param component_name red, green, blue, luma, value or intensity.
+   * @return The operation, which makes every pixel black for an unknown component.
+   */
+  public static PixelOp component(String component_name) {
+    if (component_name == null) {
+      return ColorOps::black;
+    }
+    switch (component_name) {
+      case "red":
+        return (rgbArray, from, to) -> channel(rgbArray, from, to, 16);
+      case "green":
+        return (rgbArray, from, to) -> channel(rgbArray, from, to, 8);
+      case "blue":
+        return (rgbArray, from, to) -> channel(rgbArray, from, to, 0);
+      case "luma":
+        return ColorOps::luma;
+      case "value":
+        return ColorOps::value;
+      case "intensity":
+        return ColorOps::intensity;
+      default:
+        return ColorOps::black;
+    }
+  }
+
+  /**
+   * Splits packed pixels into grey pixels of their red, green and blue channels at once,
+   * so the source is read a single time.
+   * Each channel gets a loop of its own while the run is in cache: one loop that stores to
+   * three arrays is not vectorized, since the compiler can't rule out that they overlap.
+   * @param rgbArray The packed pixels, replaced by the red grey pixels.
+   * @param green Receives the green grey pixels, at the same indices.
+   * @param blue Receives the blue grey pixels, at the same indices.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   */
+  public static void split(int[] rgbArray, int[] green, int[] blue, int from, int to) {
+    for (int i = from; i < to; i++) {
+      green[i] = (rgbArray[i] >> 8 & 0xff) * 0x010101;
+    }
+    for (int i = from; i < to; i++) {
+      blue[i] = (rgbArray[i] & 0xff) * 0x010101;
+    }
+    channel(rgbArray, from, to, 16);
+  }
+
+  /**
+   * Computes one grey plane from the planes of a planar image.
+   * @param red The source red plane.
+   * @param green The source green plane.
+   * @param blue The source blue plane.
+   * @param grey The destination plane.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   * @param component_name luma, value or intensity; any other name leaves grey unchanged.
+   */
+  public static void component(byte[] red, byte[] green, byte[] blue, byte[] grey, int from,
+      int to, String component_name) {
+    switch (component_name) {
+      case "luma":
+        for (int i = from; i < to; i++) {
+          grey[i] = (byte) (int) (0.2126 * (red[i] & 0xff) + 0.7152 * (green[i] & 0xff)
+              + 0.0722 * (blue[i] & 0xff));
+        }
+        break;
+      case "value":
+        for (int i = from; i < to; i++) {
+          grey[i] = (byte) max(red[i] & 0xff, max(green[i] & 0xff, blue[i] & 0xff));
+        }
+        break;
+      case "intensity":
+        for (int i = from; i < to; i++) {
+          grey[i] = (byte) third((red[i] & 0xff) + (green[i] & 0xff) + (blue[i] & 0xff));
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Helper function that replaces each pixel by a grey pixel of one of its channels.
+   * @param rgbArray The packed pixels.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   * @param bits The position of the channel, 16 for red, 8 for green and 0 for blue.
+   */
+  private static void channel(int[] rgbArray, int from, int to, int bits) {
+    for (int i = from; i < to; i++) {
+      rgbArray[i] = (rgbArray[i] >> bits & 0xff) * 0x010101;
+    }
+  }
+
+  /**
+   * Helper function that replaces each pixel by a grey pixel of its luma.
+   * @param rgbArray The packed pixels.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   */
+  private static void luma(int[] rgbArray, int from, int to) {
+    for (int i = from; i < to; i++) {
+      int r = rgbArray[i] >> 16 & 0xff;
+      int g = rgbArray[i] >> 8 & 0xff;
+      int b = rgbArray[i] & 0xff;
+      rgbArray[i] = (int) (0.2126 * r + 0.7152 * g + 0.0722 * b) * 0x010101;
+    }
+  }
+
+  /**
+   * Helper function that replaces each pixel by a grey pixel of its largest channel.
+   * @param rgbArray The packed pixels.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   */
+  private static void value(int[] rgbArray, int from, int to) {
+    for (int i = from; i < to; i++) {
+      int r = rgbArray[i] >> 16 & 0xff;
+      int g = rgbArray[i] >> 8 & 0xff;
+      int b = rgbArray[i] & 0xff;
+      rgbArray[i] = max(r, max(g, b)) * 0x010101;
+    }
+  }
+
+  /**
+   * Helper function that replaces each pixel by a grey pixel of its average channel.
+   * @param rgbArray The packed pixels.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   */
+  private static void intensity(int[] rgbArray, int from, int to) {
+    for (int i = from; i < to; i++) {
+      int sum = (rgbArray[i] >> 16 & 0xff) + (rgbArray[i] >> 8 & 0xff) + (rgbArray[i] & 0xff);
+      rgbArray[i] = third(sum) * 0x010101;
+    }
+  }
+
+  /**
+   * Helper function that makes every pixel black.
+   * @param rgbArray The packed pixels.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   */
+  private static void black(int[] rgbArray, int from, int to) {
+    for (int i = from; i < to; i++) {
+      rgbArray[i] = 0;
+    }
+  }
+
+  /**
+   * Helper function that divides a sum of three channels by 3 with a multiply and a shift,
+   * which unlike a division can be vectorized. It is exact for sums up to 765.
+   * @param sum The sum of three channels.
+   * @return sum / 3.
+   */
+  private static int third(int sum) {
+    return sum * 43691 >>> 17;
+  }
+
+  /**
+   * Clamps a value to 0..255 without branches or Math.min and Math.max, which keep the
+   * JIT compiler from vectorizing a loop.
+   * @param v The value.
+   * @return The closest value in 0..255.
+   */
+  static int clamp(int v) {
+    v &= ~(v >> 31);
+    int under = 255 - v;
+    return 255 - (under & ~(under >> 31));
+  }
+
+  /**
+   * The larger of two values without branches, for the same reason as clamp.
+   * @param a A value.
+   * @param b Another value, such that a - b does not overflow.
+   * @return The larger value.
+   */
+  static int max(int a, int b) {
+    int difference = a - b;
+    return a - (difference & difference >> 31);
+  }
+}
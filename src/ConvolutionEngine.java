@@ -0,0 +1,350 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class applies Kernels to images in fixed-point integer arithmetic.
+ * Each rectangle is computed from its source pixels plus a halo of the kernel radius,
+ * split into one int plane per channel so the inner loops are plain multiply-adds.
+ * Kernel rows that fall outside the image are skipped as a whole, and only the columns
+ * within the kernel radius of the left and right edges check each tap; all interior
+ * columns run without bounds checks. Separable kernels are applied as a horizontal pass
+ * followed by a vertical pass. Taps outside the image are skipped, as in the original
+ * filters, and results are truncated toward zero and clamped to 0..255.
+ * Large kernels that are not separable are applied with FFTs instead, block by block
+ * (overlap-save). The integer sums are recovered exactly by rounding, so both paths give
+ * the same image.
+ */
+public final class ConvolutionEngine {
+
+  /**
+   * Kernels with more taps than this that are not separable are applied with FFTs.
+   */
+  static final int FFT_TAPS = 121;
+
+  private ConvolutionEngine() {
+  }
+
+  /**
+   * Creates the PixelSource of an image convolved with a kernel.
+   * @param image_to_use The source image, which is only read.
+   * @param kernel The kernel.
+   * @return The PixelSource of the filtered image.
+   */
+  public static PixelSource convolve(PixelReader image_to_use, Kernel kernel) {
+    int width = image_to_use.getWidth();
+    int height = image_to_use.getHeight();
+    int rx = kernel.getWidth() / 2;
+    int ry = kernel.getHeight() / 2;
+    boolean fourier = !kernel.isSeparable()
+        && kernel.getWidth() * kernel.getHeight() > FFT_TAPS;
+    Map<Long, double[][]> spectra = new ConcurrentHashMap<>();
+    return (startX, startY, w, h, rgbArray, offset, scansize) -> {
+      int x0 = Math.max(0, startX - rx);
+      int y0 = Math.max(0, startY - ry);
+      int haloWidth = Math.min(width, startX + w + rx) - x0;
+      int haloHeight = Math.min(height, startY + h + ry) - y0;
+      int[] halo = new int[haloWidth * haloHeight];
+      image_to_use.getRGB(x0, y0, haloWidth, haloHeight, halo, 0, haloWidth);
+      Region region = new Region(width, height, startX, startY, w, h, x0, y0, haloWidth,
+          haloHeight);
+
+      int[][] planes = new int[3][halo.length];
+      for (int c = 0; c < 3; c++) {
+        int bits = 16 - 8 * c;
+        for (int i = 0; i < halo.length; i++) {
+          planes[c][i] = halo[i] >> bits & 0xff;
+        }
+      }
+      int[][] sums = new int[3][];
+      if (fourier) {
+        sums = fourier(region, kernel, planes, spectra);
+      } else {
+        for (int c = 0; c < 3; c++) {
+          sums[c] = kernel.isSeparable() ? separable(region, kernel, planes[c])
+              : direct(region, kernel, planes[c]);
+        }
+      }
+      int shift = kernel.getShift();
+      int round = (1 << shift) - 1;
+      for (int c = 0; c < 3; c++) {
+        int bits = 16 - 8 * c;
+        for (int i = 0; i < h; i++) {
+          int row = offset + i * scansize;
+          for (int j = 0; j < w; j++) {
+            int sum = sums[c][i * w + j];
+            int v = (sum + (sum >> 31 & round)) >> shift;
+            v = Math.min(255, Math.max(0, v));
+            rgbArray[row + j] = c == 0 ? v << bits : rgbArray[row + j] | v << bits;
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Helper function for general kernels, applying every non-zero weight in turn.
+   * @param region The rectangle being computed and its halo.
+   * @param kernel The kernel.
+   * @param plane One channel of the halo.
+   * @return The integer sums for the rectangle, row-major.
+   */
+  private static int[] direct(Region region, Kernel kernel, int[] plane) {
+    int w = region.w;
+    int rx = kernel.getWidth() / 2;
+    int ry = kernel.getHeight() / 2;
+    int[] sums = new int[w * region.h];
+    int left = Math.min(w, Math.max(0, rx - region.startX));
+    int right = Math.max(left, Math.min(w, region.width - rx - region.startX));
+    for (int i = 0; i < region.h; i++) {
+      int y = region.startY + i;
+      for (int k = -ry; k <= ry; k++) {
+        if (y + k < 0 || y + k >= region.height) {
+          continue;
+        }
+        int src = (y + k - region.y0) * region.haloWidth + region.startX - region.x0;
+        for (int l = -rx; l <= rx; l++) {
+          int weight = kernel.weight(k + ry, l + rx);
+          if (weight != 0) {
+            accumulate(sums, i * w, plane, src + l, weight, left, right, region, l);
+          }
+        }
+      }
+    }
+    return sums;
+  }
+
+  /**
+   * Helper function for separable kernels: a horizontal pass over every halo row,
+   * then a vertical pass over the results.
+   * @param region The rectangle being computed and its halo.
+   * @param kernel The separable kernel.
+   * @param plane One channel of the halo.
+   * @return The integer sums for the rectangle, row-major.
+   */
+  private static int[] separable(Region region, Kernel kernel, int[] plane) {
+    int w = region.w;
+    int rx = kernel.getWidth() / 2;
+    int ry = kernel.getHeight() / 2;
+    int left = Math.min(w, Math.max(0, rx - region.startX));
+    int right = Math.max(left, Math.min(w, region.width - rx - region.startX));
+    int[] rows = new int[w * region.haloHeight];
+    for (int r = 0; r < region.haloHeight; r++) {
+      int src = r * region.haloWidth + region.startX - region.x0;
+      for (int l = -rx; l <= rx; l++) {
+        int weight = kernel.horizontal(l + rx);
+        if (weight != 0) {
+          accumulate(rows, r * w, plane, src + l, weight, left, right, region, l);
+        }
+      }
+    }
+    int[] sums = new int[w * region.h];
+    for (int i = 0; i < region.h; i++) {
+      int y = region.startY + i;
+      for (int k = -ry; k <= ry; k++) {
+        int weight = kernel.vertical(k + ry);
+        if (weight == 0 || y + k < 0 || y + k >= region.height) {
+          continue;
+        }
+        int src = (y + k - region.y0) * w;
+        int dst = i * w;
+        for (int j = 0; j < w; j++) {
+          sums[dst + j] += weight * rows[src + j];
+        }
+      }
+    }
+    return sums;
+  }
+
+  /**
+   * Helper function for large kernels using overlap-save FFT convolution.
+   * The rectangle is cut into blocks, each block and its halo is zero-padded to a
+   * power-of-two size, multiplied by the spectrum of the flipped kernel and transformed
+   * back. Red and green share one complex transform as its real and imaginary parts,
+   * which works because the kernel is real.
+   * @param region The rectangle being computed and its halo.
+   * @param kernel The kernel.
+   * @param planes The three channels of the halo.
+   * @param spectra The kernel spectra already computed, by block size.
+   * @return The integer sums for the rectangle, row-major, one array per channel.
+   */
+  private static int[][] fourier(Region region, Kernel kernel, int[][] planes,
+      Map<Long, double[][]> spectra) {
+    int kw = kernel.getWidth();
+    int kh = kernel.getHeight();
+    int rows = blockSize(kh, region.h);
+    int cols = blockSize(kw, region.w);
+    double[][] spectrum = spectra.computeIfAbsent((long) rows << 32 | cols,
+        key -> spectrum(kernel, rows, cols));
+    double[] redGreenRe = new double[rows * cols];
+    double[] redGreenIm = new double[rows * cols];
+    double[] blueRe = new double[rows * cols];
+    double[] blueIm = new double[rows * cols];
+    int[][] sums = new int[3][region.w * region.h];
+    int stepY = rows - kh + 1;
+    int stepX = cols - kw + 1;
+    for (int by = 0; by < region.h; by += stepY) {
+      for (int bx = 0; bx < region.w; bx += stepX) {
+        Arrays.fill(redGreenRe, 0);
+        Arrays.fill(redGreenIm, 0);
+        Arrays.fill(blueRe, 0);
+        Arrays.fill(blueIm, 0);
+        int bw = Math.min(stepX, region.w - bx);
+        int bh = Math.min(stepY, region.h - by);
+        // block row r and column q hold the pixel at (left + q, top + r)
+        int left = region.startX + bx - kw / 2;
+        int top = region.startY + by - kh / 2;
+        int qStart = Math.max(0, region.x0 - left);
+        int qEnd = Math.min(bw + kw - 1, region.x0 + region.haloWidth - left);
+        int rEnd = Math.min(bh + kh - 1, region.y0 + region.haloHeight - top);
+        for (int r = Math.max(0, region.y0 - top); r < rEnd; r++) {
+          int src = (top + r - region.y0) * region.haloWidth + left - region.x0;
+          for (int q = qStart; q < qEnd; q++) {
+            redGreenRe[r * cols + q] = planes[0][src + q];
+            redGreenIm[r * cols + q] = planes[1][src + q];
+            blueRe[r * cols + q] = planes[2][src + q];
+          }
+        }
+        multiply(redGreenRe, redGreenIm, rows, cols, spectrum);
+        multiply(blueRe, blueIm, rows, cols, spectrum);
+        for (int i = 0; i < bh; i++) {
+          int src = (i + kh - 1) * cols + kw - 1;
+          int dst = (by + i) * region.w + bx;
+          for (int j = 0; j < bw; j++) {
+            sums[0][dst + j] = (int) Math.round(redGreenRe[src + j]);
+            sums[1][dst + j] = (int) Math.round(redGreenIm[src + j]);
+            sums[2][dst + j] = (int) Math.round(blueRe[src + j]);
+          }
+        }
+      }
+    }
+    return sums;
+  }
+
+  /**
+   * Helper function that chooses the FFT size along one axis: about eight kernel lengths,
+   * but no larger than the rectangle and its halo need.
+   * @param k The kernel length.
+   * @param extent The rectangle length.
+   * @return A power of two at least k.
+   */
+  private static int blockSize(int k, int extent) {
+    return Math.min(powerOfTwo(8 * k), powerOfTwo(extent + k - 1));
+  }
+
+  /**
+   * Helper function that rounds up to a power of two.
+   * @param n A positive number.
+   * @return The smallest power of two not less than n.
+   */
+  private static int powerOfTwo(int n) {
+    return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+  }
+
+  /**
+   * Helper function that computes the spectrum of the flipped kernel, so that the
+   * convolution of the FFT gives the same weighted sums as the direct path.
+   * @param kernel The kernel.
+   * @param rows The block height.
+   * @param cols The block width.
+   * @return The real and imaginary parts of the spectrum.
+   */
+  private static double[][] spectrum(Kernel kernel, int rows, int cols) {
+    int kw = kernel.getWidth();
+    int kh = kernel.getHeight();
+    double[] re = new double[rows * cols];
+    double[] im = new double[rows * cols];
+    for (int a = 0; a < kh; a++) {
+      for (int b = 0; b < kw; b++) {
+        re[a * cols + b] = kernel.weight(kh - 1 - a, kw - 1 - b);
+      }
+    }
+    FastFourierTransform.transform(re, im, rows, cols, false);
+    return new double[][]{re, im};
+  }
+
+  /**
+   * Helper function that convolves a block with the kernel by transforming it,
+   * multiplying by the kernel spectrum and transforming back.
+   * @param re The real parts of the block.
+   * @param im The imaginary parts of the block.
+   * @param rows The block height.
+   * @param cols The block width.
+   * @param spectrum The kernel spectrum.
+   */
+  private static void multiply(double[] re, double[] im, int rows, int cols,
+      double[][] spectrum) {
+    FastFourierTransform.transform(re, im, rows, cols, false);
+    double[] kRe = spectrum[0];
+    double[] kIm = spectrum[1];
+    for (int i = 0; i < rows * cols; i++) {
+      double r = re[i] * kRe[i] - im[i] * kIm[i];
+      im[i] = re[i] * kIm[i] + im[i] * kRe[i];
+      re[i] = r;
+    }
+    FastFourierTransform.transform(re, im, rows, cols, true);
+  }
+
+  /**
+   * Helper function that adds one weighted, shifted row of source values to a row of sums.
+   * Columns in [left, right) never reach outside the image and are added without checks,
+   * the columns of the border band check that their tap is inside the image.
+   * @param sums The sums.
+   * @param dst The index of the first sum of the row.
+   * @param plane The source values.
+   * @param src The index of the source value for the first column.
+   * @param weight The weight of the tap.
+   * @param left The first interior column of the rectangle.
+   * @param right The end of the interior columns of the rectangle.
+   * @param region The rectangle being computed.
+   * @param l The horizontal offset of the tap.
+   */
+  private static void accumulate(int[] sums, int dst, int[] plane, int src, int weight,
+      int left, int right, Region region, int l) {
+    for (int j = left; j < right; j++) {
+      sums[dst + j] += weight * plane[src + j];
+    }
+    for (int j = 0; j < left; j++) {
+      int x = region.startX + j + l;
+      if (x >= 0 && x < region.width) {
+        sums[dst + j] += weight * plane[src + j];
+      }
+    }
+    for (int j = right; j < region.w; j++) {
+      int x = region.startX + j + l;
+      if (x >= 0 && x < region.width) {
+        sums[dst + j] += weight * plane[src + j];
+      }
+    }
+  }
+
+  /**
+   * The rectangle being computed, the image it belongs to and the halo read around it.
+   */
+  private static final class Region {
+    private final int width;
+    private final int height;
+    private final int startX;
+    private final int startY;
+    private final int w;
+    private final int h;
+    private final int x0;
+    private final int y0;
+    private final int haloWidth;
+    private final int haloHeight;
+
+    private Region(int width, int height, int startX, int startY, int w, int h, int x0, int y0,
+        int haloWidth, int haloHeight) {
+      this.width = width;
+      this.height = height;
+      this.startX = startX;
+      this.startY = startY;
+      this.w = w;
+      this.h = h;
+      this.x0 = x0;
+      this.y0 = y0;
+      this.haloWidth = haloWidth;
+      this.haloHeight = haloHeight;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * This class is a radix-2 fast Fourier transform over complex values held in separate
+ * real and imaginary arrays. It is used by the ConvolutionEngine for large kernels,
+ * where multiplying spectra is much cheaper than summing every tap.
+ */
+public final class FastFourierTransform {
+
+  private FastFourierTransform() {
+  }
+
+  /**
+   * Transforms a row-major two-dimensional array in place.
+   * The inverse transform is scaled by 1 / (rows * cols), so a forward transform followed
+   * by an inverse one gives back the input.
+   * @param re The real parts.
+   * @param im The imaginary parts.
+   * @param rows The number of rows, a power of two.
+   * @param cols The number of columns, a power of two.
+   * @param inverse True for the inverse transform.
+   * @throws IllegalArgumentException if a size is not a power of two.
+   */
+  public static void transform(double[] re, double[] im, int rows, int cols, boolean inverse) {
+    if (Integer.bitCount(rows) != 1 || Integer.bitCount(cols) != 1) {
+      throw new IllegalArgumentException("Transform sizes must be powers of two");
+    }
+    double[][] rowTable = twiddles(cols, inverse);
+    for (int r = 0; r < rows; r++) {
+      transform(re, im, r * cols, cols, rowTable);
+    }
+    double[][] colTable = twiddles(rows, inverse);
+    double[] colRe = new double[rows];
+    double[] colIm = new double[rows];
+    for (int c = 0; c < cols; c++) {
+      for (int r = 0; r < rows; r++) {
+        colRe[r] = re[r * cols + c];
+        colIm[r] = im[r * cols + c];
+      }
+      transform(colRe, colIm, 0, rows, colTable);
+      for (int r = 0; r < rows; r++) {
+        re[r * cols + c] = colRe[r];
+        im[r * cols + c] = colIm[r];
+      }
+    }
+    if (inverse) {
+      double scale = 1.0 / ((double) rows * cols);
+      for (int i = 0; i < rows * cols; i++) {
+        re[i] *= scale;
+        im[i] *= scale;
+      }
+    }
+  }
+
+  /**
+   * Helper function that computes the cosines and sines of the n-th roots of unity.
+   * The table is computed directly rather than by repeated multiplication to keep the
+   * transform accurate enough to recover exact integer convolutions.
+   * @param n The transform size.
+   * @param inverse True for the inverse transform, which turns the other way.
+   * @return The cosines and sines of 2 pi k / n for k below n / 2.
+   */
+  private static double[][] twiddles(int n, boolean inverse) {
+    double[][] table = new double[2][n / 2];
+    for (int k = 0; k < n / 2; k++) {
+      double angle = 2 * Math.PI * k / n;
+      table[0][k] = Math.cos(angle);
+      table[1][k] = inverse ? Math.sin(angle) : -Math.sin(angle);
+    }
+    return table;
+  }
+
+  /**
+   * Helper function for the one-dimensional transform of n contiguous values.
+   * @param re The real parts.
+   * @param im The imaginary parts.
+   * @param offset The index of the first value.
+   * @param n The number of values, a power of two.
+   * @param table The twiddle factors for n.
+   */
+  private static void transform(double[] re, double[] im, int offset, int n, double[][] table) {
+    for (int i = 1, j = 0; i < n; i++) {
+      int bit = n >> 1;
+      for (; (j & bit) != 0; bit >>= 1) {
+        j ^= bit;
+      }
+      j ^= bit;
+      if (i < j) {
+        double t = re[offset + i];
+        re[offset + i] = re[offset + j];
+        re[offset + j] = t;
+        t = im[offset + i];
+        im[offset + i] = im[offset + j];
+        im[offset + j] = t;
+      }
+    }
+    double[] cos = table[0];
+    double[] sin = table[1];
+    for (int len = 2; len <= n; len <<= 1) {
+      int half = len >> 1;
+      int step = n / len;
+      for (int i = offset; i < offset + n; i += len) {
+        for (int k = 0; k < half; k++) {
+          double wRe = cos[k * step];
+          double wIm = sin[k * step];
+          int u = i + k;
+          int v = u + half;
+          double tRe = re[v] * wRe - im[v] * wIm;
+          double tIm = re[v] * wIm + im[v] * wRe;
+          re[v] = re[u] - tRe;
+          im[v] = im[u] - tIm;
+          re[u] += tRe;
+          im[u] += tIm;
+        }
+      }
+    }
+  }
+}
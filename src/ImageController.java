@@ -1,13 +1,23 @@
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.function.BooleanSupplier;
 import javax.imageio.ImageIO;
 
 /**
@@ -20,46 +30,90 @@ import javax.imageio.ImageIO;
 public class ImageController implements Controller {
   private static final ImageModel controllerModel = new ImageModel();
   private static final ImageView contactView = new ImageView();
+  private static boolean fusion = true;
+  private static boolean streaming = false;
+  private static boolean binaryPpm = false;
+  private static boolean backgroundSaves = false;
+  private static final SaveQueue saves = new SaveQueue(2, 8);
+  private static final Prefetcher loads = new Prefetcher(2);
+  private static final int LOOKAHEAD = 3;
 
   @Override
   public Photo Load(String filename, String image_name) {
-    String validateExtension = filename.substring(filename.lastIndexOf('.'));
-    Photo loadedImage;
-    if (validateExtension.equals(".ppm")) {
-      loadedImage = readPPM(filename, image_name);
-    } else if (validateExtension.equals(".jpg") || validateExtension.equals(".jpeg")
-        || validateExtension.equals(".png")) {
-      loadedImage = readOther(filename, image_name);
-    } else {
+    saves.waitForFile(filename);
+    if (!isImageFile(filename)) {
       return null;
     }
+    Photo loadedImage = loads.take(filename, image_name);
+    if (loadedImage == null) {
+      loadedImage = read(filename, image_name);
+    }
     controllerModel.updateDirectory(image_name, loadedImage);
     return loadedImage;
   }
 
+  /**
+   * Helper function that checks if a file has the extension of a supported format.
+   * @param filename Given file.
+   * @return True for ppm, jpg, jpeg, and png files.
+   */
+  private static boolean isImageFile(String filename) {
+    String validateExtension = filename.substring(filename.lastIndexOf('.'));
+    return validateExtension.equals(".ppm") || validateExtension.equals(".jpg")
+        || validateExtension.equals(".jpeg") || validateExtension.equals(".png");
+  }
+
+  /**
+   * Helper function to decode a ppm, jpg, or png file without adding it to the model.
+   * It may run on a background thread.
+   * @param filename Given file, which passes isImageFile.
+   * @param image_name Given image name for the new Photo.
+   * @return The decoded Photo object or null if the file can't be read.
+   */
+  private Photo read(String filename, String image_name) {
+    if (filename.endsWith(".ppm")) {
+      return readPPM(filename, image_name);
+    }
+    return readOther(filename, image_name);
+  }
+
   /**
    * Helper function to read jpg and png files.
+   * Images with 8-bit sRGB channels, which ImageIO decodes to byte rasters, are unpacked
+   * from the raster's bytes a row at a time; others are converted with getRGB a row at a
+   * time. When storing tiled images, pngs are streamed into the tiles by readTiled instead
+   * if they can be read row by row.
    * @param filename Given file.
    * @param image_name Given image name to be populated to the model map.
    * @return The successfully loaded Photo object or null if given an invalid input.
    */
   private Photo readOther(String filename, String image_name) {
     try {
+      if (controllerModel.getStorageMode() == StorageMode.TILED && filename.endsWith(".png")) {
+        Photo tiled = readTiled(filename, image_name);
+        if (tiled != null) {
+          return tiled;
+        }
+      }
       BufferedImage image = ImageIO.read(new File(filename));
       if (image == null) {
         return null;
       }
       int width = image.getWidth();
       int height = image.getHeight();
-      Photo newImage = new ImagePhoto(image_name, width, height);
+      Photo newImage = controllerModel.createPhoto(image_name, width, height);
+      int[] row = new int[width];
+      boolean bytes = isByteRgb(image);
       for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          int rgb = image.getRGB(j, i);
-          int r = rgb >> 16 & 0xff;
-          int g = rgb >> 8 & 0xff;
-          int b = rgb & 0xff;
-          newImage.setPixel(j, i, new int[]{r, g, b});
+        if (bytes) {
+          unpackRow(image, i, row);
+        } else {
+          image.getRGB(0, i, width, 1, row, 0, width);
+          for (int j = 0; j < width; j++) {
+            row[j] &= 0xffffff;
+          }
         }
+        newImage.setRGB(0, i, width, 1, row, 0, width);
       }
       return newImage;
     } catch (IOException e) {
@@ -67,65 +121,124 @@ public class ImageController implements Controller {
     }
   }
 
+  /**
+   * Helper function that checks if an image stores 8-bit sRGB channels, and maybe alpha,
+   * as bytes whose values getRGB would return unchanged.
+   * @param image The image.
+   * @return True if its rows can be unpacked from the bytes of its raster.
+   */
+  private static boolean isByteRgb(BufferedImage image) {
+    ColorModel colors = image.getColorModel();
+    WritableRaster raster = image.getRaster();
+    return colors instanceof ComponentColorModel && colors.getColorSpace().isCS_sRGB()
+        && colors.getNumColorComponents() == 3 && !colors.isAlphaPremultiplied()
+        && colors.getTransferType() == DataBuffer.TYPE_BYTE
+        && raster.getSampleModel() instanceof ComponentSampleModel
+        && raster.getDataBuffer().getNumBanks() == 1
+        && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+  }
+
+  /**
+   * Helper function that unpacks one row of an image that passes isByteRgb.
+   * @param image The image.
+   * @param y The row.
+   * @param row Receives the packed 0xRRGGBB pixels.
+   */
+  private static void unpackRow(BufferedImage image, int y, int[] row) {
+    WritableRaster raster = image.getRaster();
+    ComponentSampleModel layout = (ComponentSampleModel) raster.getSampleModel();
+    byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+    int[] offsets = layout.getBandOffsets();
+    int step = layout.getPixelStride();
+    int at = raster.getDataBuffer().getOffset() + y * layout.getScanlineStride();
+    int r = at + offsets[0];
+    int g = at + offsets[1];
+    int b = at + offsets[2];
+    for (int j = 0, i = 0; j < row.length; j++, i += step) {
+      row[j] = (data[r + i] & 0xff) << 16 | (data[g + i] & 0xff) << 8 | data[b + i] & 0xff;
+    }
+  }
+
+  /**
+   * Helper function to read a png file into a tiled image in one pass.
+   * Files that PngScanlineReader can decode are streamed into the tiles a row at a time,
+   * so the whole decoded image is never in memory at once. The file is read only now and
+   * the tiles belong to the image, so changing the file later does not change the image.
+   * @param filename Given file.
+   * @param image_name Given image name to be populated to the model map.
+   * @return The loaded Photo object or null if the file can't be read row by row.
+   * @throws IOException if the file cannot be read.
+   */
+  private Photo readTiled(String filename, String image_name) throws IOException {
+    try (ScanlineReader reader = ScanlineReader.open(filename)) {
+      if (reader == null) {
+        return null;
+      }
+      int width = reader.getWidth();
+      int height = reader.getHeight();
+      Photo newImage = controllerModel.createPhoto(image_name, width, height);
+      int[] row = new int[width];
+      for (int i = 0; i < height; i++) {
+        reader.readRow(row);
+        newImage.setRGB(0, i, width, 1, row, 0, width);
+      }
+      return newImage;
+    }
+  }
+
   /**
    * Helper function to read ppm files.
+   * The file is parsed in one pass by PpmScanlineReader, which skips comments and blank
+   * lines, and each row is stored into the new image as soon as it is read.
    * @param filename Given file.
    * @param image_name Given image name to be populated to the model map.
    * @return The successfully loaded Photo object or null if given an invalid input.
    */
   private Photo readPPM(String filename, String image_name) {
-    Scanner sc;
-
-    try {
-      sc = new Scanner(new FileInputStream(filename));
-    } catch (FileNotFoundException e) {
-      return null;
-    }
-    StringBuilder builder = new StringBuilder();
-    while (sc.hasNextLine()) {
-      String s = sc.nextLine();
-      if (s.charAt(0) != '#') {
-        builder.append(s).append(System.lineSeparator());
+    try (PpmScanlineReader reader = PpmScanlineReader.open(filename)) {
+      if (reader == null) {
+        return null;
       }
-    }
-
-    sc = new Scanner(builder.toString());
-
-    String token;
-
-    token = sc.next();
-    if (!token.equals("P3")) {
-      return null;
-    }
-
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-    Photo newImage = new ImagePhoto(image_name, width, height);
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int r = sc.nextInt();
-        int g = sc.nextInt();
-        int b = sc.nextInt();
-        newImage.setPixel(j, i, new int[]{r, g, b});
+      int width = reader.getWidth();
+      int height = reader.getHeight();
+      Photo newImage = controllerModel.createPhoto(image_name, width, height);
+      int[] row = new int[width];
+      for (int i = 0; i < height; i++) {
+        reader.readRow(row);
+        newImage.setRGB(0, i, width, 1, row, 0, width);
       }
+      return newImage;
+    } catch (IOException e) {
+      return null;
     }
-    return newImage;
   }
 
   @Override
   public Photo Save(String filename, String image_to_use) {
-    String validateExtension = filename.substring(filename.lastIndexOf('.'));
-    Photo savedImage;
     Photo newImage = controllerModel.getImagePhoto(image_to_use);
     if (newImage == null) {
       return null;
     }
+    saves.waitForFile(filename);
+    return save(filename, newImage, binaryPpm);
+  }
+
+  /**
+   * Helper function to save an image in the format of the file's extension.
+   * It only reads the image, so it may run on a background thread.
+   * @param filename Given file.
+   * @param image_to_use The image to be saved in the file.
+   * @param binary True to save a ppm file as binary (P6), false as plain (P3).
+   * @return The successfully saved Photo object or null if given an invalid input.
+   */
+  private Photo save(String filename, Photo image_to_use, boolean binary) {
+    String validateExtension = filename.substring(filename.lastIndexOf('.'));
+    Photo savedImage;
     if (validateExtension.equals(".ppm")) {
-      savedImage = savePPM(filename, newImage);
+      savedImage = savePPM(filename, image_to_use, binary);
     } else if (validateExtension.equals(".jpg") || validateExtension.equals(".jpeg")
         || validateExtension.equals(".png")) {
-      savedImage = saveOther(filename, newImage, validateExtension);
+      savedImage = saveOther(filename, image_to_use, validateExtension);
     } else {
       return null;
     }
@@ -134,6 +247,7 @@ public class ImageController implements Controller {
 
   /**
    * Helper function to save jpg and png files.
+   * An ImagePhoto is encoded straight from its own raster, other images are copied into one.
    * @param filename Given file.
    * @param image_to_use Image from the ImageModel's imageDirectory to be saved in the file.
    * @param format The extension to differentiate between jpgs and pngs.
@@ -143,14 +257,14 @@ public class ImageController implements Controller {
     try {
       int height = image_to_use.getHeight();
       int width = image_to_use.getWidth();
-      int[][][] pixels = image_to_use.getPixels();
-      BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          int[] rgb = pixels[j][i];
-          int color = (rgb[0] << 16) | (rgb[1] << 8) | rgb[2];
-          image.setRGB(j, i, color);
+      BufferedImage image = image_to_use instanceof ImagePhoto
+          ? ((ImagePhoto) image_to_use).getBufferedImage() : null;
+      if (image == null) {
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int i = 0; i < height; i++) {
+          image_to_use.getRGB(0, i, width, 1, row, 0, width);
+          image.setRGB(0, i, width, 1, row, 0, width);
         }
       }
 
@@ -169,31 +283,20 @@ public class ImageController implements Controller {
   }
 
   /**
-   * Helper function to save ppm files.
+   * Helper function to save ppm files, plain or binary.
    * @param filename Given file.
    * @param image_to_use Image from the ImageModel's imageDirectory to be saved in the file.
+   * @param binary True for a binary (P6) file, false for a plain (P3) one.
    * @return The successfully saved Photo object or null if given an invalid input.
    */
-  private Photo savePPM(String filename, Photo image_to_use) {
+  private Photo savePPM(String filename, Photo image_to_use, boolean binary) {
     int height = image_to_use.getHeight();
     int width = image_to_use.getWidth();
-    int[][][] pixels = image_to_use.getPixels();
-    File file = new File(filename);
-    File parentDir = file.getParentFile();
-
-    if (parentDir != null && !parentDir.exists()) {
-      parentDir.mkdirs();
-    }
-
-    try (PrintWriter writer = new PrintWriter(new FileOutputStream(filename))) {
-      writer.println("P3");
-      writer.println(width + " " + height);
-      writer.println(255);
+    try (ScanlineWriter writer = ScanlineWriter.open(filename, width, height, binary)) {
+      int[] row = new int[width];
       for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          int[] rgb = pixels[j][i];
-          writer.println(rgb[0] + " " + rgb[1] + " " + rgb[2]);
-        }
+        image_to_use.getRGB(0, i, width, 1, row, 0, width);
+        writer.writeRow(row);
       }
       return image_to_use;
     } catch (IOException e) {
@@ -203,22 +306,593 @@ public class ImageController implements Controller {
 
   @Override
   public void runScript(String filePath) {
+    List<String> commands = new ArrayList<>();
     try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
       String line;
       while ((line = reader.readLine()) != null) {
-        commandExecutor(line.trim());
+        commands.add(line.trim());
       }
     } catch (IOException e) {
       contactView.printFeedback("Error reading file " + e.getMessage());
+      return;
+    }
+    for (int i = 0; i < commands.size(); i++) {
+      prefetch(commands, i);
+      int end = streaming ? streamEnd(commands, i) : i;
+      if (end > i && runStream(commands.subList(i, end + 1))) {
+        i = end;
+        continue;
+      }
+      end = fusion ? chainEnd(commands, i) : i;
+      if (end > i) {
+        runChain(commands.subList(i, end + 1), sourceIsDead(commands, i, end));
+        i = end;
+      } else if (!sourceIsDead(commands, i, i) || !runInPlace(commands.get(i).split("\\s+"))) {
+        commandExecutor(commands.get(i));
+      }
+    }
+    loads.clear();
+    saves.finish(contactView);
+  }
+
+  /**
+   * Helper function that starts decoding the files of the next few loads of a script in
+   * the background, so they are ready when the script reaches them. A load is skipped if
+   * its file is saved before it, or it starts a section that will be streamed. Nothing
+   * past a storage or streaming command is prefetched, since those change how it loads.
+   * @param commands The script lines.
+   * @param line The line about to run.
+   */
+  private void prefetch(List<String> commands, int line) {
+    int ahead = 0;
+    for (int j = line + 1; j < commands.size() && ahead < LOOKAHEAD; j++) {
+      String[] token = commands.get(j).split("\\s+");
+      String command = token[0].toLowerCase();
+      if (command.equals("storage") || command.equals("streaming")) {
+        return;
+      }
+      if (!command.equals("load") || token.length != 3) {
+        continue;
+      }
+      ahead++;
+      String filename = token[1];
+      if (!filename.contains(".") || !isImageFile(filename) || loads.has(filename, token[2])
+          || saves.writes(filename) || savedBetween(commands, line, j, filename)
+          || (streaming && streamEnd(commands, j) > j)) {
+        continue;
+      }
+      loads.start(filename, token[2], () -> read(filename, token[2]));
+    }
+  }
+
+  /**
+   * Helper function that checks if a script saves to a file within some lines.
+   * @param commands The script lines.
+   * @param start The first line.
+   * @param end The line after the last.
+   * @param filename The file.
+   * @return True if one of the lines is a save to the file.
+   */
+  private static boolean savedBetween(List<String> commands, int start, int end,
+      String filename) {
+    String path = SaveQueue.pathOf(filename);
+    for (int i = start; i < end; i++) {
+      String[] token = commands.get(i).split("\\s+");
+      if (token[0].equalsIgnoreCase("save") && token.length >= 2
+          && SaveQueue.pathOf(token[1]).equals(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Helper function that checks if the source image of a command, or of a chain of
+   * commands, is not needed after it: either the result replaces it under the same name,
+   * or no later command mentions it.
+   * @param commands The script lines.
+   * @param start The line of the first command, whose second to last token is the source.
+   * @param end The line of the last command, whose last token is the result.
+   * @return True if the source image may be changed in place.
+   */
+  private static boolean sourceIsDead(List<String> commands, int start, int end) {
+    String[] first = withoutRegion(commands.get(start).split("\\s+"));
+    String[] last = withoutRegion(commands.get(end).split("\\s+"));
+    if (first.length < 3) {
+      return false;
+    }
+    String source = first[first.length - 2];
+    return source.equals(last[last.length - 1]) || !usedAfter(commands, end, source);
+  }
+
+  /**
+   * Helper function that runs a per-pixel color command or a flip directly on the pixels
+   * of its source image, when the model finds that nothing else shares them.
+   * @param token The command split into tokens.
+   * @return True if the command ran in place, false if it must run the usual way.
+   */
+  private boolean runInPlace(String[] token) {
+    String[] command_tokens = withoutRegion(token);
+    if (command_tokens != token) {
+      return inRegion(token, () -> runInPlace(command_tokens));
+    }
+    if (token.length < 3) {
+      return false;
+    }
+    String command = token[0].toLowerCase();
+    String source = token[token.length - 2];
+    String dest = token[token.length - 1];
+    saves.waitFor(controllerModel.getImagePhoto(source));
+    Photo ph;
+    if (command.equals("horizontal-flip") && token.length == 3) {
+      ph = controllerModel.HorizontalFlipInPlace(source, dest);
+    } else if (command.equals("vertical-flip") && token.length == 3) {
+      ph = controllerModel.VerticalFlipInPlace(source, dest);
+    } else if (pixelOpOf(token) != null) {
+      ph = controllerModel.PointwiseInPlace(exactOpOf(token), source, dest);
+    } else if (command.equals("equalize") && token.length == 3
+        && controllerModel.getImagePhoto(source) != null) {
+      Lut lut = Lut.equalize(controllerModel.Histogram(controllerModel.getImagePhoto(source)));
+      ph = controllerModel.PointwiseInPlace(lut, source, dest);
+    } else {
+      return false;
+    }
+    if (ph == null) {
+      return false;
+    }
+    contactView.printFeedback("Created " + dest + " via " + command + " in place");
+    return true;
+  }
+
+  /**
+   * Helper function that removes the optional region argument of a command, written as
+   * region x y width height after the image names.
+   * @param token The command split into tokens.
+   * @return The command without its region, or token itself if it has none.
+   */
+  private static String[] withoutRegion(String[] token) {
+    if (token.length > 5 && token[token.length - 5].equalsIgnoreCase("region")) {
+      return Arrays.copyOf(token, token.length - 5);
+    }
+    return token;
+  }
+
+  /**
+   * Helper function that runs a command with the model limited to the command's region.
+   * Only color commands, blur, sharpen and convolve take a region.
+   * @param token The command split into tokens, ending with its region.
+   * @param action Runs the command without its region.
+   * @return The result of the action, or false if the command or its region is invalid.
+   */
+  private static boolean inRegion(String[] token, BooleanSupplier action) {
+    String[] command_tokens = withoutRegion(token);
+    String command = command_tokens[0].toLowerCase();
+    boolean filter = (command.equals("blur") || command.equals("sharpen"))
+        && command_tokens.length == 3
+        || command.equals("convolve") && command_tokens.length == 4
+        || pixelOpOf(command_tokens) != null;
+    if (!filter) {
+      return false;
+    }
+    int n = token.length;
+    try {
+      controllerModel.setRegion(Integer.parseInt(token[n - 4]), Integer.parseInt(token[n - 3]),
+          Integer.parseInt(token[n - 2]), Integer.parseInt(token[n - 1]));
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    try {
+      return action.getAsBoolean();
+    } finally {
+      controllerModel.clearRegion();
     }
   }
 
+  /**
+   * Helper function that finds a script section that can be streamed row by row: a load,
+   * then commands that each work on the previous one's result, then a save of the last
+   * result. The steps may be color commands, blur, sharpen, convolve or horizontal-flip,
+   * and none of the images of the section may be used anywhere later in the script. The
+   * save may not be to the loaded file, which is still being read while rows are written.
+   * @param commands The script lines.
+   * @param start The line to start from.
+   * @return The line of the save, or start if the section does not start here.
+   */
+  private static int streamEnd(List<String> commands, int start) {
+    String[] first = commands.get(start).split("\\s+");
+    if (!first[0].equalsIgnoreCase("load") || first.length != 3) {
+      return start;
+    }
+    String current = first[2];
+    for (int j = start + 1; j < commands.size(); j++) {
+      String line = commands.get(j);
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] next = line.split("\\s+");
+      if (next[0].equalsIgnoreCase("save") && next.length == 3) {
+        return next[2].equals(current) && !usedAfter(commands, j, current)
+            && !SaveQueue.pathOf(next[1]).equals(SaveQueue.pathOf(first[1])) ? j : start;
+      }
+      if (!isStreamable(next) || !next[next.length - 2].equals(current)
+          || usedAfter(commands, j, current)) {
+        return start;
+      }
+      current = next[next.length - 1];
+    }
+    return start;
+  }
+
+  /**
+   * Helper function that checks if a command works on one row at a time or on a few
+   * neighbouring rows.
+   * @param token The command split into tokens.
+   * @return True for color commands, blur, sharpen, convolve and horizontal-flip.
+   */
+  private static boolean isStreamable(String[] token) {
+    switch (token[0].toLowerCase()) {
+      case "blur":
+      case "sharpen":
+      case "horizontal-flip":
+        return token.length == 3;
+      case "convolve":
+        return token.length == 4;
+      default:
+        return pixelOpOf(token) != null;
+    }
+  }
+
+  /**
+   * Helper function that runs a load, its steps and a save as one ScanlinePipeline, so
+   * only a few rows of the image are in memory at a time and none of its images are
+   * added to the model. Neighbouring color steps are combined as in a color chain.
+   * Rows are written to a temporary file next to the output, which replaces the output
+   * only once every row is written; if reading or writing fails it is deleted instead.
+   * @param section The script lines from the load to the save, which may include comments.
+   * @return False if the files or a step can't be streamed, or streaming failed, in which
+   *     case nothing was done and the lines should be run one by one.
+   */
+  private boolean runStream(List<String> section) {
+    List<String[]> steps = new ArrayList<>();
+    for (String line : section) {
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        steps.add(line.split("\\s+"));
+      }
+    }
+    String input = steps.get(0)[1];
+    String output = steps.get(steps.size() - 1)[1];
+    List<Object> stages = new ArrayList<>();
+    List<String[]> colorSteps = new ArrayList<>();
+    try {
+      for (String[] step : steps.subList(1, steps.size() - 1)) {
+        String command = step[0].toLowerCase();
+        if (!command.equals("blur") && !command.equals("sharpen")
+            && !command.equals("convolve") && !command.equals("horizontal-flip")) {
+          colorSteps.add(step);
+          continue;
+        }
+        if (!colorSteps.isEmpty()) {
+          stages.add(colorOpOf(colorSteps));
+          colorSteps = new ArrayList<>();
+        }
+        if (command.equals("blur")) {
+          stages.add(ImageModel.BLUR);
+        } else if (command.equals("sharpen")) {
+          stages.add(ImageModel.SHARPEN);
+        } else if (command.equals("convolve")) {
+          double[][] kernel = readKernel(step[1]);
+          if (kernel == null) {
+            return false;
+          }
+          stages.add(Kernel.of(kernel));
+        } else {
+          stages.add(command);
+        }
+      }
+      if (!colorSteps.isEmpty()) {
+        stages.add(colorOpOf(colorSteps));
+      }
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    saves.waitForFile(input);
+    saves.waitForFile(output);
+    Path target = Paths.get(output).toAbsolutePath();
+    Path partial = null;
+    try (ScanlineReader reader = ScanlineReader.open(input)) {
+      if (reader == null) {
+        return false;
+      }
+      ScanlinePipeline pipeline = new ScanlinePipeline(reader.getWidth(), reader.getHeight());
+      for (Object stage : stages) {
+        if (stage instanceof PixelOp) {
+          pipeline.then((PixelOp) stage);
+        } else if (stage instanceof Kernel) {
+          pipeline.then((Kernel) stage);
+        } else {
+          pipeline.horizontalFlip();
+        }
+      }
+      partial = Files.createTempFile(target.getParent(), ".stream",
+          output.substring(output.lastIndexOf('.')));
+      try (ScanlineWriter writer = ScanlineWriter.open(partial.toString(), reader.getWidth(),
+          reader.getHeight(), binaryPpm)) {
+        if (writer == null) {
+          return false;
+        }
+        pipeline.run(reader, writer);
+      }
+      Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+      partial = null;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      deletePartial(partial);
+    }
+    contactView.printFeedback("Streamed " + input + " to " + output + " via "
+        + (steps.size() - 2) + " steps");
+    return true;
+  }
+
+  /**
+   * Helper function that deletes the temporary file of a stream that did not finish.
+   * @param partial The file, or null if there is none.
+   */
+  private static void deletePartial(Path partial) {
+    if (partial == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(partial);
+    } catch (IOException e) {
+      partial.toFile().deleteOnExit();
+    }
+  }
+
+  /**
+   * Helper function that turns consecutive color commands into one per-pixel operation.
+   * Neighbouring lookup tables are composed into one table and neighbouring color matrices
+   * into one ColorMatrix; the rest are applied one after another to each row while it is
+   * in cache. A sepia or component command that is not folded with a neighbour runs as
+   * its exact ColorOps loop rather than as a fixed-point matrix.
+   * @param steps The commands split into tokens, at least one.
+   * @return The operation of all of them.
+   * @throws IllegalArgumentException if a folded matrix is too large.
+   */
+  private static PixelOp colorOpOf(List<String[]> steps) {
+    List<PixelOp> ops = new ArrayList<>();
+    PixelOp run = null;
+    String[] single = null;
+    for (String[] step : steps) {
+      PixelOp op = pixelOpOf(step);
+      if (run instanceof Lut && op instanceof Lut) {
+        run = ((Lut) run).then((Lut) op);
+        single = null;
+      } else if (run instanceof ColorMatrix && op instanceof ColorMatrix) {
+        run = ((ColorMatrix) run).then((ColorMatrix) op);
+        single = null;
+      } else {
+        if (run != null) {
+          ops.add(single != null ? exactOpOf(single) : run);
+        }
+        run = op;
+        single = step;
+      }
+    }
+    ops.add(single != null ? exactOpOf(single) : run);
+    PixelOp op = ops.get(0);
+    for (PixelOp next : ops.subList(1, ops.size())) {
+      op = op.andThen(next);
+    }
+    return op;
+  }
+
+  /**
+   * Helper function that gives the per-pixel operation of a single color command, with
+   * the same results as running the command on its own.
+   * @param token The command split into tokens.
+   * @return The ColorOps loop of a sepia or component command, otherwise its Lut.
+   */
+  private static PixelOp exactOpOf(String[] token) {
+    String command = token[0].toLowerCase();
+    if (command.equals("sepia")) {
+      return ColorOps::sepia;
+    }
+    if (command.endsWith("-component")) {
+      return ColorOps.component(command.substring(0, command.indexOf("-component")));
+    }
+    return pixelOpOf(token);
+  }
+
+  /**
+   * Helper function that finds a chain of per-pixel color commands starting at a script line.
+   * Each step of a chain is a brighten, levels, curves, gamma, sepia, or component command
+   * whose source is the previous step's result, and
+   * that result is not used anywhere later in the script, so it never needs to exist on
+   * its own.
+   * @param commands The script lines.
+   * @param start The line to start from.
+   * @return The line of the last step of the chain, or start if there is no chain.
+   */
+  private static int chainEnd(List<String> commands, int start) {
+    String[] first = commands.get(start).split("\\s+");
+    if (pixelOpOf(first) == null) {
+      return start;
+    }
+    String current = first[first.length - 1];
+    int end = start;
+    for (int j = start + 1; j < commands.size(); j++) {
+      String line = commands.get(j);
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] next = line.split("\\s+");
+      if (pixelOpOf(next) == null || !next[next.length - 2].equals(current)
+          || usedAfter(commands, j, current)) {
+        break;
+      }
+      end = j;
+      current = next[next.length - 1];
+    }
+    return end;
+  }
+
+  /**
+   * Helper function that checks if an image name appears in any command after a line.
+   * @param commands The script lines.
+   * @param line The last line that may use the name.
+   * @param image_name The image name.
+   * @return True if a later command mentions the name.
+   */
+  private static boolean usedAfter(List<String> commands, int line, String image_name) {
+    for (String command : commands.subList(line + 1, commands.size())) {
+      if (!command.startsWith("#") && Arrays.asList(command.split("\\s+")).contains(image_name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Helper function that gives the per-pixel operation of a color command.
+   * @param token The command split into tokens.
+   * @return The Lut or ColorMatrix of the command, the ColorOps loop of value-component,
+   *     or null if it is not a color command or its values are invalid.
+   */
+  private static PixelOp pixelOpOf(String[] token) {
+    Lut lut = lutOf(token);
+    if (lut != null) {
+      return lut;
+    }
+    if (token[0].equalsIgnoreCase("value-component") && token.length == 3) {
+      return ColorOps.component("value");
+    }
+    return colorMatrixOf(token);
+  }
+
+  /**
+   * Helper function that gives the lookup table of a brighten, levels, curves or gamma
+   * command.
+   * @param token The command split into tokens.
+   * @return The table, or null if the command is not one of these or its values are invalid.
+   */
+  private static Lut lutOf(String[] token) {
+    try {
+      switch (token[0].toLowerCase()) {
+        case "brighten":
+          return token.length == 4 ? Lut.brighten(Integer.parseInt(token[1])) : null;
+        case "levels":
+          return token.length == 6 ? Lut.levels(Integer.parseInt(token[1]),
+              Integer.parseInt(token[2]), Integer.parseInt(token[3])) : null;
+        case "gamma":
+          return token.length == 4 ? Lut.gamma(Double.parseDouble(token[1])) : null;
+        case "curves":
+          if (token.length != 4) {
+            return null;
+          }
+          String[] points = token[1].split(";");
+          int[][] curve = new int[points.length][];
+          for (int i = 0; i < points.length; i++) {
+            String[] values = points[i].split(",");
+            curve[i] = new int[values.length];
+            for (int j = 0; j < values.length; j++) {
+              curve[i][j] = Integer.parseInt(values[j].trim());
+            }
+          }
+          return Lut.curves(curve);
+        default:
+          return null;
+      }
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Helper function that gives the color matrix of a sepia or component command.
+   * @param token The command split into tokens.
+   * @return The matrix, or null if the command is not an affine color transform.
+   */
+  private static ColorMatrix colorMatrixOf(String[] token) {
+    String command = token[0].toLowerCase();
+    if (command.equals("sepia") && token.length == 3) {
+      return ColorMatrix.sepia();
+    }
+    if (command.endsWith("-component") && token.length == 3) {
+      return ColorMatrix.component(command.substring(0, command.indexOf("-component")));
+    }
+    return null;
+  }
+
+  /**
+   * Helper function that runs a chain of color commands as a single pass over the image,
+   * combined by colorOpOf. The intermediate images are not created, and when the source
+   * is not needed afterwards the pass writes over its pixels if nothing else shares them.
+   * If a folded matrix is too large to evaluate, the steps are run one by one.
+   * @param chain The script lines of the chain, which may include comments.
+   * @param inPlace True if the source image is not needed after the chain.
+   */
+  private void runChain(List<String> chain, boolean inPlace) {
+    List<String[]> steps = new ArrayList<>();
+    for (String line : chain) {
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        steps.add(line.split("\\s+"));
+      }
+    }
+    PixelOp op;
+    try {
+      op = colorOpOf(steps);
+    } catch (IllegalArgumentException e) {
+      chain.forEach(this::commandExecutor);
+      return;
+    }
+    String[] first = steps.get(0);
+    String[] last = steps.get(steps.size() - 1);
+    String source = first[first.length - 2];
+    String dest = last[last.length - 1];
+    if (isNull(source)) {
+      return;
+    }
+    if (inPlace) {
+      saves.waitFor(controllerModel.getImagePhoto(source));
+    }
+    if (inPlace && controllerModel.PointwiseInPlace(op, source, dest) != null) {
+      contactView.printFeedback(
+          "Created " + dest + " via " + steps.size() + " color steps in place");
+      return;
+    }
+    Photo image_to_use = controllerModel.getImagePhoto(source);
+    Photo ph;
+    if (op instanceof Lut) {
+      ph = controllerModel.Lookup((Lut) op, image_to_use, dest);
+    } else {
+      ph = controllerModel.Pointwise(op, image_to_use, dest);
+    }
+    controllerModel.updateDirectory(dest, ph);
+    contactView.printFeedback(
+        "Created " + dest + " via " + steps.size() + " color steps in one pass");
+  }
+
   @Override
   public void commandExecutor(String command) {
     if (command.startsWith("#") || command.isEmpty()) {
       return;
     }
     String[] token = command.split("\\s+");
+    String[] command_tokens = withoutRegion(token);
+    if (command_tokens != token) {
+      if (!inRegion(token, () -> {
+        commandExecutor(String.join(" ", command_tokens));
+        return true;
+      })) {
+        contactView.printFeedback("Error: Invalid region for '" + token[0] + "'.");
+      }
+      return;
+    }
+    if (token.length >= 3 && token[token.length - 1].equals(token[token.length - 2])
+        && runInPlace(token)) {
+      return;
+    }
 
     switch (token[0].toLowerCase()) {
       case "load":
@@ -235,7 +909,16 @@ public class ImageController implements Controller {
         break;
 
       case "save":
-        if (token.length == 3) {
+        if (token.length == 3 && backgroundSaves) {
+          Photo image = controllerModel.getImagePhoto(token[2]);
+          if (image == null) {
+            contactView.printFeedback("Error saving image");
+          } else {
+            boolean binary = binaryPpm;
+            saves.submit(token[1], token[2], image,
+                () -> save(token[1], image, binary) != null);
+          }
+        } else if (token.length == 3) {
           Photo test = Save(token[1], token[2]);
           if (test == null) {
             contactView.printFeedback("Error saving image");
@@ -346,6 +1029,117 @@ public class ImageController implements Controller {
       case "vertical-flip":
         handleFlipCommand(token);
         break;
+      case "transpose":
+        if (token.length == 3) {
+          if (isNull(token[1])) {
+            return;
+          }
+          Photo ph = controllerModel.Transpose(controllerModel.getImagePhoto(token[1]), token[2]);
+          controllerModel.updateDirectory(token[2], ph);
+          contactView.printFeedback("Created " + token[2] + " via transpose");
+        } else {
+          contactView.printFeedback("Error: Invalid 'transpose' command format.");
+        }
+        break;
+      case "crop":
+        handleCropCommand(token);
+        break;
+      case "resize":
+      case "thumbnail":
+        handleResizeCommand(token);
+        break;
+      case "convolve":
+        handleConvolveCommand(token);
+        break;
+      case "levels":
+      case "curves":
+      case "gamma":
+        handleLutCommand(token);
+        break;
+      case "histogram":
+      case "equalize":
+        handleHistogramCommand(token);
+        break;
+      case "storage":
+        if (token.length == 3 && token[1].equalsIgnoreCase("tiled")) {
+          try {
+            controllerModel.setTileCache(Integer.parseInt(token[2]));
+            controllerModel.setStorageMode(StorageMode.TILED);
+            contactView.printFeedback(
+                "Storing new images as tiled, caching up to " + token[2] + " tiles");
+          } catch (IllegalArgumentException e) {
+            contactView.printFeedback("The tile cache must be a number of at least 1");
+          }
+        } else if (token.length == 2) {
+          try {
+            controllerModel.setStorageMode(StorageMode.valueOf(token[1].toUpperCase()));
+            contactView.printFeedback("Storing new images as " + token[1].toLowerCase());
+          } catch (IllegalArgumentException e) {
+            contactView.printFeedback("Unknown storage mode " + token[1]);
+          }
+        } else {
+          contactView.printFeedback(
+              "Invalid 'storage' command format. Please give correct command");
+        }
+        break;
+      case "streaming":
+        if (token.length == 2 && (token[1].equalsIgnoreCase("on")
+            || token[1].equalsIgnoreCase("off"))) {
+          streaming = token[1].equalsIgnoreCase("on");
+          contactView.printFeedback("Scripts " + (streaming ? "stream load to save row by row"
+              : "load whole images"));
+        } else {
+          contactView.printFeedback(
+              "Invalid 'streaming' command format. Please give correct command");
+        }
+        break;
+      case "ppm":
+        if (token.length == 2 && (token[1].equalsIgnoreCase("plain")
+            || token[1].equalsIgnoreCase("binary"))) {
+          binaryPpm = token[1].equalsIgnoreCase("binary");
+          contactView.printFeedback("Saving PPM files as " + (binaryPpm ? "binary (P6)"
+              : "plain (P3)"));
+        } else {
+          contactView.printFeedback(
+              "Invalid 'ppm' command format. Please give correct command");
+        }
+        break;
+      case "saves":
+        if (token.length == 2 && (token[1].equalsIgnoreCase("background")
+            || token[1].equalsIgnoreCase("wait"))) {
+          backgroundSaves = token[1].equalsIgnoreCase("background");
+          contactView.printFeedback(backgroundSaves
+              ? "Saving images in the background, reported when the script ends"
+              : "Saving images before the next command");
+        } else {
+          contactView.printFeedback(
+              "Invalid 'saves' command format. Please give correct command");
+        }
+        break;
+      case "fusion":
+        if (token.length == 2 && (token[1].equalsIgnoreCase("on")
+            || token[1].equalsIgnoreCase("off"))) {
+          fusion = token[1].equalsIgnoreCase("on");
+          contactView.printFeedback("Script color chains " + (fusion ? "run in one pass"
+              : "create every image"));
+        } else {
+          contactView.printFeedback(
+              "Invalid 'fusion' command format. Please give correct command");
+        }
+        break;
+      case "parallelism":
+        if (token.length == 2) {
+          try {
+            controllerModel.setParallelism(Integer.parseInt(token[1]));
+            contactView.printFeedback("Running operations on " + token[1] + " threads");
+          } catch (IllegalArgumentException e) {
+            contactView.printFeedback("Parallelism must be a number of at least 1");
+          }
+        } else {
+          contactView.printFeedback(
+              "Invalid 'parallelism' command format. Please give correct command");
+        }
+        break;
       default:
         contactView.printFeedback("Invalid command. Please give correct command");
         break;
@@ -398,6 +1192,195 @@ public class ImageController implements Controller {
     }
   }
 
+  /**
+   * Helper function to crop an image.
+   * The format is crop x y width height image-name dest-image-name.
+   * @param token The given crop command format.
+   */
+  private static void handleCropCommand(String[] token) {
+    if (token.length != 7) {
+      contactView.printFeedback("Error: Invalid 'crop' command format.");
+      return;
+    }
+    if (isNull(token[5])) {
+      return;
+    }
+    Photo ph;
+    try {
+      ph = controllerModel.Crop(controllerModel.getImagePhoto(token[5]), token[6],
+          Integer.parseInt(token[1]), Integer.parseInt(token[2]), Integer.parseInt(token[3]),
+          Integer.parseInt(token[4]));
+    } catch (NumberFormatException e) {
+      contactView.printFeedback("Error: Invalid 'crop' command format.");
+      return;
+    }
+    if (ph == null) {
+      contactView.printFeedback("Error: Crop rectangle is outside of " + token[5]);
+      return;
+    }
+    controllerModel.updateDirectory(token[6], ph);
+    contactView.printFeedback("Created " + token[6] + " via crop");
+  }
+
+  /**
+   * Helper function to scale an image.
+   * The formats are resize width height image-name dest-image-name, and
+   * thumbnail size image-name dest-image-name, which fits the image in a size by size square.
+   * @param token The given resize or thumbnail command format.
+   */
+  private static void handleResizeCommand(String[] token) {
+    String command = token[0].toLowerCase();
+    boolean resize = command.equals("resize");
+    if (token.length != (resize ? 5 : 4)) {
+      contactView.printFeedback("Error: Invalid '" + command + "' command format.");
+      return;
+    }
+    String source = token[token.length - 2];
+    String dest = token[token.length - 1];
+    if (isNull(source)) {
+      return;
+    }
+    Photo ph;
+    try {
+      ph = resize
+          ? controllerModel.Resize(controllerModel.getImagePhoto(source), dest,
+              Integer.parseInt(token[1]), Integer.parseInt(token[2]))
+          : controllerModel.Thumbnail(controllerModel.getImagePhoto(source), dest,
+              Integer.parseInt(token[1]));
+    } catch (NumberFormatException e) {
+      ph = null;
+    }
+    if (ph == null) {
+      contactView.printFeedback("Error: Invalid '" + command + "' size.");
+      return;
+    }
+    controllerModel.updateDirectory(dest, ph);
+    contactView.printFeedback("Created " + dest + " via " + command);
+  }
+
+  /**
+   * Helper function for the tone commands built on lookup tables.
+   * The formats are levels black mid white image-name dest-image-name,
+   * gamma value image-name dest-image-name, and curves points image-name dest-image-name,
+   * where the points are input,output pairs separated by semicolons, like 0,0;128,180;255,255.
+   * @param token The given levels, curves or gamma command format.
+   */
+  private static void handleLutCommand(String[] token) {
+    String command = token[0].toLowerCase();
+    if (token.length != (command.equals("levels") ? 6 : 4)) {
+      contactView.printFeedback("Error: Invalid '" + command + "' command format.");
+      return;
+    }
+    String source = token[token.length - 2];
+    String dest = token[token.length - 1];
+    if (isNull(source)) {
+      return;
+    }
+    Lut lut = lutOf(token);
+    if (lut == null) {
+      contactView.printFeedback("Error: Invalid '" + command + "' values.");
+      return;
+    }
+    Photo ph = controllerModel.Lookup(lut, controllerModel.getImagePhoto(source), dest);
+    controllerModel.updateDirectory(dest, ph);
+    contactView.printFeedback("Created " + dest + " via " + command);
+  }
+
+  /**
+   * Helper function for the commands that use the histogram of an image.
+   * histogram image-name dest-image-name draws the histogram as a 256x256 image, and
+   * equalize image-name dest-image-name equalizes each channel with a lookup table.
+   * @param token The given histogram or equalize command format.
+   */
+  private static void handleHistogramCommand(String[] token) {
+    String command = token[0].toLowerCase();
+    if (token.length != 3) {
+      contactView.printFeedback("Error: Invalid '" + command + "' command format.");
+      return;
+    }
+    if (isNull(token[1])) {
+      return;
+    }
+    Photo image_to_use = controllerModel.getImagePhoto(token[1]);
+    Photo ph = command.equals("histogram")
+        ? controllerModel.HistogramImage(image_to_use, token[2])
+        : controllerModel.Equalize(image_to_use, token[2]);
+    controllerModel.updateDirectory(token[2], ph);
+    contactView.printFeedback("Created " + token[2] + " via " + command);
+  }
+
+  /**
+   * Helper function to apply a user-defined kernel.
+   * The format is convolve kernel image-name dest-image-name, where kernel is either a
+   * file with one row of weights per line, or the rows written inline separated by
+   * semicolons, like 0,-1,0;-1,5,-1;0,-1,0. Weights may be decimals or fractions like 1/9.
+   * @param token The given convolve command format.
+   */
+  private static void handleConvolveCommand(String[] token) {
+    if (token.length != 4) {
+      contactView.printFeedback("Error: Invalid 'convolve' command format.");
+      return;
+    }
+    if (isNull(token[2])) {
+      return;
+    }
+    double[][] kernel = readKernel(token[1]);
+    if (kernel == null) {
+      contactView.printFeedback("Error: Could not read kernel " + token[1]);
+      return;
+    }
+    Photo ph = controllerModel.Convolve(kernel, controllerModel.getImagePhoto(token[2]),
+        token[3]);
+    if (ph == null) {
+      contactView.printFeedback("Error: Kernel sizes must be odd and rows of equal length");
+      return;
+    }
+    controllerModel.updateDirectory(token[3], ph);
+    contactView.printFeedback("Created " + token[3] + " via convolve");
+  }
+
+  /**
+   * Helper function to read a kernel from a file or from its inline form.
+   * In a file, blank lines and lines starting with # are skipped and weights are separated
+   * by whitespace or commas.
+   * @param kernel The file name or the inline rows.
+   * @return The kernel rows, or null if the file can't be read or a weight is not a number.
+   */
+  private static double[][] readKernel(String kernel) {
+    List<String> rows = new ArrayList<>();
+    if (new File(kernel).isFile()) {
+      try (BufferedReader reader = new BufferedReader(new FileReader(kernel))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (!line.isEmpty() && !line.startsWith("#")) {
+            rows.add(line);
+          }
+        }
+      } catch (IOException e) {
+        return null;
+      }
+    } else {
+      rows.addAll(Arrays.asList(kernel.split(";")));
+    }
+    double[][] weights = new double[rows.size()][];
+    try {
+      for (int i = 0; i < weights.length; i++) {
+        String[] values = rows.get(i).trim().split("[\\s,]+");
+        weights[i] = new double[values.length];
+        for (int j = 0; j < values.length; j++) {
+          int slash = values[j].indexOf('/');
+          weights[i][j] = slash == -1 ? Double.parseDouble(values[j])
+              : Double.parseDouble(values[j].substring(0, slash))
+                  / Double.parseDouble(values[j].substring(slash + 1));
+        }
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    return weights;
+  }
+
   /**
    * Helper function that checks if the given image name exists in the imageDirectory.
    * @param image_name Given image name.
@@ -423,6 +1406,7 @@ public class ImageController implements Controller {
           break;
         }
         commandExecutor(command);
+        saves.finish(contactView);
       } else {
         runScript(command);
       }
@@ -1,14 +1,39 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class is an implementation of the model interface.
  * Uses a map imageDirectory that contains the name and Photo object for each image.
  * The imageDirectory on successful inputs directed by the ImageController.
+ * Names that hold the same pixels share one stored image, found by its fingerprint.
+ * Each operation is written as a PixelSource that computes any rectangle of its result.
+ * Results of operations on a TiledPhoto stay lazy, all other results are filled in bands,
+ * which run on a ForkJoinPool when the parallelism is more than 1.
  */
 public class ImageModel implements Model {
   private static final Map<String, Photo> imageDirectory = new HashMap<>();
+  private static final Map<Long, List<Photo>> contentStore = new HashMap<>();
+  private static final Map<Photo, Integer> references = new IdentityHashMap<>();
+  private static final long MAPPED_THRESHOLD = 1L << 28;
+  private static final int BAND_PIXELS = 1 << 18;
+  static final Kernel BLUR = Kernel.separable(new int[]{1, 2, 1}, new int[]{1, 2, 1}, 4);
+  static final Kernel SHARPEN = Kernel.of(new double[][]{
+      {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+      {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0}
+  });
+  private static StorageMode storageMode = StorageMode.PACKED;
+  private static ForkJoinPool pool;
+  private Rectangle region;
 
   @Override
   public Photo getImagePhoto(String Key) {
@@ -17,103 +42,257 @@ public class ImageModel implements Model {
 
   @Override
   public void updateDirectory(String Key, Photo ph) {
-    imageDirectory.put(Key, ph);
+    Photo previous = imageDirectory.put(Key, ph == null ? null : intern(ph));
+    release(previous);
   }
 
-  @Override
-  public Photo AdjustComponent(Photo image_to_use, String dest_image_name, String component_name) {
-    int height = image_to_use.getHeight();
-    int width = image_to_use.getWidth();
-    int[][][] pixels = image_to_use.getPixels();
-    Photo adjustedImage = new ImagePhoto(dest_image_name, width, height);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] pixel = pixels[j][i];
-        int r = pixel[0];
-        int g = pixel[1];
-        int b = pixel[2];
-        if (Objects.equals(component_name, "red")) {
-          adjustedImage.setPixel(j, i, new int[]{r, r, r});
-        }
-        if (Objects.equals(component_name, "green")) {
-          adjustedImage.setPixel(j, i, new int[]{g, g, g});
-        }
-        if (Objects.equals(component_name, "blue")) {
-          adjustedImage.setPixel(j, i, new int[]{b, b, b});
-        }
-        if (Objects.equals(component_name, "luma")) {
-          double v = 0.2126 * r + 0.7152 * g + 0.0722 * b;
-          adjustedImage.setPixel(j, i, new int[]{(int) v, (int) v, (int) v});
-        }
-        if (Objects.equals(component_name, "value")) {
-          int v = Math.max(r, Math.max(g, b));
-          adjustedImage.setPixel(j, i, new int[]{v, v, v});
-        }
-        if (Objects.equals(component_name, "intensity")) {
-          int v = (r + g + b) / 3;
-          adjustedImage.setPixel(j, i, new int[]{v, v, v});
-        }
+  /**
+   * Helper function that finds stored content equal to the given image.
+   * Lazy tiled images and views are kept as they are, since fingerprinting them would
+   * compute all their pixels and they share their storage already.
+   * @param ph The image about to be stored.
+   * @return The stored image with the same pixels, or ph itself if there is none.
+   */
+  private static Photo intern(Photo ph) {
+    if (ph instanceof TiledPhoto || ph instanceof ViewPhoto) {
+      return ph;
+    }
+    List<Photo> candidates = contentStore.computeIfAbsent(ph.fingerprint(),
+        key -> new ArrayList<>());
+    for (Photo stored : candidates) {
+      if (stored == ph || stored.equals(ph)) {
+        references.merge(stored, 1, Integer::sum);
+        return stored;
       }
     }
-    return adjustedImage;
+    candidates.add(ph);
+    references.put(ph, 1);
+    return ph;
+  }
+
+  /**
+   * Helper function that drops one name's reference to stored content.
+   * Content that no name refers to any more is removed from the content store.
+   * @param ph The image that a name no longer refers to, may be null.
+   */
+  private static void release(Photo ph) {
+    Integer count = ph == null ? null : references.get(ph);
+    if (count == null) {
+      return;
+    }
+    if (count > 1) {
+      references.put(ph, count - 1);
+      return;
+    }
+    references.remove(ph);
+    contentStore.values().forEach(candidates -> candidates.removeIf(stored -> stored == ph));
+    contentStore.values().removeIf(List::isEmpty);
   }
 
   @Override
-  public Photo HorizontalFlip(Photo image_to_use, String dest_image_name) {
-    int height = image_to_use.getHeight();
-    int full_width = image_to_use.getWidth();
-    int width = full_width / 2;
-    int[][][] pixels = image_to_use.getPixels();
-    Photo newImage = new ImagePhoto(dest_image_name, full_width, height);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        newImage.setPixel(j, i, pixels[full_width - j - 1][i]);
-        newImage.setPixel(full_width - j - 1, i, pixels[j][i]);
-      }
+  public void setStorageMode(StorageMode mode) {
+    storageMode = mode;
+  }
+
+  @Override
+  public Photo createPhoto(String name, int width, int height) {
+    if ((long) width * height > MAPPED_THRESHOLD) {
+      return StorageMode.MAPPED.create(name, width, height);
     }
+    return storageMode.create(name, width, height);
+  }
+
+  @Override
+  public StorageMode getStorageMode() {
+    return storageMode;
+  }
+
+  @Override
+  public void setTileCache(int tiles) {
+    TiledPhoto.setCacheTiles(tiles);
+  }
+
+  @Override
+  public int getTileCache() {
+    return TiledPhoto.getCacheTiles();
+  }
+
+  @Override
+  public void setParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    if (parallelism == getParallelism()) {
+      return;
+    }
+    if (pool != null) {
+      pool.shutdown();
+    }
+    pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+  }
+
+  @Override
+  public int getParallelism() {
+    return pool == null ? 1 : pool.getParallelism();
+  }
+
+  @Override
+  public void setRegion(int x, int y, int width, int height) {
+    if (x < 0 || y < 0 || width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid region");
+    }
+    region = new Rectangle(x, y, width, height);
+  }
+
+  @Override
+  public void clearRegion() {
+    region = null;
+  }
+
+  @Override
+  public Photo createPhoto(String name, int width, int height, PixelSource source) {
+    if (storageMode == StorageMode.TILED) {
+      return new TiledPhoto(name, width, height, source);
+    }
+    Photo newImage = createPhoto(name, width, height);
+    fill(newImage, source);
     return newImage;
   }
 
+  @Override
+  public Photo AdjustComponent(Photo image_to_use, String dest_image_name, String component_name) {
+    if (image_to_use instanceof PlanarPhoto && region == null) {
+      return adjustPlanar((PlanarPhoto) image_to_use, dest_image_name, component_name);
+    }
+    return render(image_to_use, dest_image_name, image_to_use.getWidth(),
+        image_to_use.getHeight(), pointwise(image_to_use, ColorOps.component(component_name)));
+  }
+
+  @Override
+  public Photo HorizontalFlip(Photo image_to_use, String dest_image_name) {
+    return ViewPhoto.horizontalFlip(dest_image_name, image_to_use);
+  }
+
   @Override
   public Photo VerticalFlip(Photo image_to_use, String dest_image_name) {
-    int full_height = image_to_use.getHeight();
-    int height = full_height / 2;
-    int width = image_to_use.getWidth();
-    int[][][] pixels = image_to_use.getPixels();
-    Photo newImage = new ImagePhoto(dest_image_name, width, full_height);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        newImage.setPixel(j, i, pixels[j][full_height - i - 1]);
-        newImage.setPixel(j, full_height - i - 1, pixels[j][i]);
-      }
+    return ViewPhoto.verticalFlip(dest_image_name, image_to_use);
+  }
+
+  @Override
+  public Photo Transpose(Photo image_to_use, String dest_image_name) {
+    return ViewPhoto.transpose(dest_image_name, image_to_use);
+  }
+
+  @Override
+  public Photo Crop(Photo image_to_use, String dest_image_name, int x, int y, int width,
+      int height) {
+    if (x < 0 || y < 0 || width <= 0 || height <= 0
+        || x + width > image_to_use.getWidth() || y + height > image_to_use.getHeight()) {
+      return null;
     }
-    return newImage;
+    return ViewPhoto.crop(dest_image_name, image_to_use, x, y, width, height);
   }
 
   @Override
-  public Photo Brighten(int intensity, Photo image_to_use, String dest_image_name) {
+  public Photo Resize(Photo image_to_use, String dest_image_name, int width, int height) {
+    if (width <= 0 || height <= 0) {
+      return null;
+    }
+    Photo level = nearestLevel(image_to_use, width, height);
+    PixelSource source = level.getWidth() == width && level.getHeight() == height
+        ? level::getRGB : Resampler.resize(level, width, height);
+    return render(image_to_use, dest_image_name, width, height, source);
+  }
+
+  @Override
+  public Photo Thumbnail(Photo image_to_use, String dest_image_name, int size) {
+    if (size <= 0) {
+      return null;
+    }
     int width = image_to_use.getWidth();
     int height = image_to_use.getHeight();
-    int[][][] pixels = image_to_use.getPixels();
-    Photo brightenedImage = new ImagePhoto(dest_image_name, width, height);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] pixel = pixels[j][i];
-        int r = Math.min(255, Math.max(0, pixel[0] + intensity));
-        int g = Math.min(255, Math.max(0, pixel[1] + intensity));
-        int b = Math.min(255, Math.max(0, pixel[2] + intensity));
-        brightenedImage.setPixel(j, i, new int[]{r, g, b});
+    int longer = Math.max(width, height);
+    if (longer > size) {
+      width = (int) Math.max(1, Math.round((double) width * size / longer));
+      height = (int) Math.max(1, Math.round((double) height * size / longer));
+    }
+    return Resize(image_to_use, dest_image_name, width, height);
+  }
 
+  /**
+   * Helper function that finds the smallest level of an image's pyramid that is at least
+   * the given size, building the levels that are missing. Each level is the one before it
+   * halved by averaging, rounding odd sizes up, and the pyramid is kept with the image until
+   * it is written, so later resizes of the same image start from the nearest level instead
+   * of the full image.
+   * @param image_to_use The image.
+   * @param width The width needed.
+   * @param height The height needed.
+   * @return The image itself or one of its reduced copies.
+   */
+  private Photo nearestLevel(Photo image_to_use, int width, int height) {
+    int depth = 0;
+    for (int w = image_to_use.getWidth(), h = image_to_use.getHeight();
+        (w + 1) / 2 >= width && (h + 1) / 2 >= height && (w > 1 || h > 1);
+        w = (w + 1) / 2, h = (h + 1) / 2) {
+      depth++;
+    }
+    if (depth == 0) {
+      return image_to_use;
+    }
+    boolean cacheable = image_to_use instanceof AbstractPhoto;
+    Photo[] pyramid = cacheable ? ((AbstractPhoto) image_to_use).cachedPyramid() : null;
+    if (pyramid == null) {
+      pyramid = new Photo[]{image_to_use};
+    }
+    if (pyramid.length <= depth) {
+      Photo[] levels = Arrays.copyOf(pyramid, depth + 1);
+      for (int k = pyramid.length; k <= depth; k++) {
+        Photo above = levels[k - 1];
+        Photo level = createPhoto(image_to_use.getName() + "@" + k,
+            (above.getWidth() + 1) / 2, (above.getHeight() + 1) / 2);
+        fill(level, Resampler.resize(above, level.getWidth(), level.getHeight()));
+        levels[k] = level;
+      }
+      pyramid = levels;
+      if (cacheable) {
+        ((AbstractPhoto) image_to_use).cachePyramid(pyramid);
       }
     }
-    return brightenedImage;
+    return pyramid[depth];
+  }
+
+  @Override
+  public Photo Brighten(int intensity, Photo image_to_use, String dest_image_name) {
+    return Lookup(Lut.brighten(intensity), image_to_use, dest_image_name);
   }
 
   @Override
   public Photo[] Split(Photo image_to_use, String image_r, String image_g, String image_b) {
-    Photo redImage = AdjustComponent(image_to_use, image_r, "red");
-    Photo greenImage = AdjustComponent(image_to_use, image_g, "green");
-    Photo blueImage = AdjustComponent(image_to_use, image_b, "blue");
+    if (image_to_use instanceof PlanarPhoto || image_to_use instanceof TiledPhoto) {
+      Photo redImage = AdjustComponent(image_to_use, image_r, "red");
+      Photo greenImage = AdjustComponent(image_to_use, image_g, "green");
+      Photo blueImage = AdjustComponent(image_to_use, image_b, "blue");
+      return new Photo[]{redImage, greenImage, blueImage};
+    }
+    int width = image_to_use.getWidth();
+    int height = image_to_use.getHeight();
+    Photo redImage = createPhoto(image_r, width, height);
+    Photo greenImage = createPhoto(image_g, width, height);
+    Photo blueImage = createPhoto(image_b, width, height);
+    // a row at a time: three band-sized buffers cost more to allocate than the split itself
+    bands(height, bandRows(width, height), (y, end) -> {
+      int[] red = new int[width];
+      int[] green = new int[width];
+      int[] blue = new int[width];
+      for (int row = y; row < end; row++) {
+        image_to_use.getRGB(0, row, width, 1, red, 0, width);
+        ColorOps.split(red, green, blue, 0, width);
+        redImage.setRGB(0, row, width, 1, red, 0, width);
+        greenImage.setRGB(0, row, width, 1, green, 0, width);
+        blueImage.setRGB(0, row, width, 1, blue, 0, width);
+      }
+    });
     return new Photo[]{redImage, greenImage, blueImage};
   }
 
@@ -131,115 +310,511 @@ public class ImageModel implements Model {
     if (width != g_width || width != b_width || height != b_height || height != g_height) {
       return null;
     }
-    int[][][] r_pixels = image_r.getPixels();
-    int[][][] g_pixels = image_g.getPixels();
-    int[][][] b_pixels = image_b.getPixels();
-    Photo newImage = new ImagePhoto(dest_image_name, width, height);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        newImage.setPixel(j, i, new int[]{r_pixels[j][i][0], g_pixels[j][i][1], b_pixels[j][i][2]});
+    if (image_r instanceof PlanarPhoto && image_g instanceof PlanarPhoto
+        && image_b instanceof PlanarPhoto) {
+      return new PlanarPhoto(dest_image_name, width, height,
+          ((PlanarPhoto) image_r).sharedPlane(0), ((PlanarPhoto) image_g).sharedPlane(1),
+          ((PlanarPhoto) image_b).sharedPlane(2));
+    }
+    Photo combined = render(image_r, dest_image_name, width, height,
+        (startX, startY, w, h, rgbArray, offset, scansize) -> {
+          int[] g_pixels = new int[w * h];
+          int[] b_pixels = new int[w * h];
+          image_r.getRGB(startX, startY, w, h, rgbArray, offset, scansize);
+          image_g.getRGB(startX, startY, w, h, g_pixels, 0, w);
+          image_b.getRGB(startX, startY, w, h, b_pixels, 0, w);
+          for (int i = 0; i < h; i++) {
+            for (int j = 0; j < w; j++) {
+              int index = offset + i * scansize + j;
+              rgbArray[index] = rgbArray[index] & 0xff0000 | g_pixels[i * w + j] & 0x00ff00
+                  | b_pixels[i * w + j] & 0x0000ff;
+            }
+          }
+        });
+    if (combined instanceof TiledPhoto) {
+      for (Photo channel : new Photo[]{image_g, image_b}) {
+        if (channel instanceof AbstractPhoto) {
+          ((AbstractPhoto) channel).addReader(combined);
+        }
       }
     }
-    return newImage;
+    return combined;
   }
 
   @Override
   public Photo Blur(Photo image_to_use, String dest_image_name) {
-    int width = image_to_use.getWidth();
-    int height = image_to_use.getHeight();
-    int[][][] pixels = image_to_use.getPixels();
-    Photo blurImage = new ImagePhoto(dest_image_name, width, height);
+    return render(image_to_use, dest_image_name, image_to_use.getWidth(),
+        image_to_use.getHeight(), ConvolutionEngine.convolve(image_to_use, BLUR));
+  }
 
-    double[][] blur = {
-        {1 / 16.0, 1 / 8.0, 1 / 16.0},
-        {1 / 8.0, 1 / 4.0, 1 / 8.0},
-        {1 / 16.0, 1 / 8.0, 1 / 16.0}
-    };
+  @Override
+  public Photo Sharpen(Photo image_to_use, String dest_image_name) {
+    return render(image_to_use, dest_image_name, image_to_use.getWidth(),
+        image_to_use.getHeight(), ConvolutionEngine.convolve(image_to_use, SHARPEN));
+  }
 
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        double[] newPixels = new double[3];
-
-        for (int k = -1; k <= 1; k++) {
-          for (int l = -1; l <= 1; l++) {
-            if (j + l >= 0 && j + l < width && k + i >= 0 && k + i < height) {
-              int[] pixel = pixels[j + l][i + k];
-              newPixels[0] += pixel[0] * blur[k + 1][l + 1];
-              newPixels[1] += pixel[1] * blur[k + 1][l + 1];
-              newPixels[2] += pixel[2] * blur[k + 1][l + 1];
-            }
-          }
-        }
+  @Override
+  public Photo Convolve(double[][] kernel, Photo image_to_use, String dest_image_name) {
+    if (kernel == null || image_to_use == null) {
+      return null;
+    }
+    Kernel fixed;
+    try {
+      fixed = Kernel.of(kernel);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    return render(image_to_use, dest_image_name, image_to_use.getWidth(),
+        image_to_use.getHeight(), ConvolutionEngine.convolve(image_to_use, fixed));
+  }
+
+  @Override
+  public Photo ColorTransform(ColorMatrix matrix, Photo image_to_use, String dest_image_name) {
+    return render(image_to_use, dest_image_name, image_to_use.getWidth(),
+        image_to_use.getHeight(), pointwise(image_to_use, matrix));
+  }
 
-        int newR = Math.min(255, Math.max(0, (int) newPixels[0]));
-        int newG = Math.min(255, Math.max(0, (int) newPixels[1]));
-        int newB = Math.min(255, Math.max(0, (int) newPixels[2]));
-        blurImage.setPixel(j, i, new int[]{newR, newG, newB});
+  @Override
+  public Photo Lookup(Lut lut, Photo image_to_use, String dest_image_name) {
+    if (image_to_use instanceof PlanarPhoto && region == null) {
+      return lookupPlanar(lut, (PlanarPhoto) image_to_use, dest_image_name);
+    }
+    return render(image_to_use, dest_image_name, image_to_use.getWidth(),
+        image_to_use.getHeight(), pointwise(image_to_use, lut));
+  }
+
+  @Override
+  public Photo Pointwise(PixelOp op, Photo image_to_use, String dest_image_name) {
+    return render(image_to_use, dest_image_name, image_to_use.getWidth(),
+        image_to_use.getHeight(), pointwise(image_to_use, op));
+  }
+
+  @Override
+  public long[][] Histogram(Photo image_to_use) {
+    long[][] cached = image_to_use instanceof AbstractPhoto
+        ? ((AbstractPhoto) image_to_use).cachedHistogram() : null;
+    if (cached == null) {
+      cached = countValues(image_to_use);
+      if (image_to_use instanceof AbstractPhoto) {
+        ((AbstractPhoto) image_to_use).cacheHistogram(cached);
       }
     }
-    return blurImage;
+    return new long[][]{cached[0].clone(), cached[1].clone(), cached[2].clone()};
   }
 
   @Override
-  public Photo Sharpen(Photo image_to_use, String dest_image_name) {
+  public Photo HistogramImage(Photo image_to_use, String dest_image_name) {
+    long[][] histogram = Histogram(image_to_use);
+    long largest = 1;
+    for (long[] channel : histogram) {
+      for (long count : channel) {
+        largest = Math.max(largest, count);
+      }
+    }
+    int[] graph = new int[256 * 256];
+    for (int y = 0; y < 256; y++) {
+      for (int x = 0; x < 256; x++) {
+        graph[y * 256 + x] = x % 32 == 0 || y % 32 == 0 ? 0xdddddd : 0xffffff;
+      }
+    }
+    int[] colors = {0xff0000, 0x00ff00, 0x0000ff};
+    for (int c = 0; c < 3; c++) {
+      int previous = 255 - (int) (histogram[c][0] * 255 / largest);
+      graph[previous * 256] = colors[c];
+      for (int v = 1; v < 256; v++) {
+        int y = 255 - (int) (histogram[c][v] * 255 / largest);
+        for (int row = Math.min(previous, y); row <= Math.max(previous, y); row++) {
+          graph[row * 256 + (row == y ? v : v - 1)] = colors[c];
+        }
+        previous = y;
+      }
+    }
+    Photo newImage = createPhoto(dest_image_name, 256, 256);
+    newImage.setRGB(0, 0, 256, 256, graph, 0, 256);
+    return newImage;
+  }
+
+  @Override
+  public Photo Equalize(Photo image_to_use, String dest_image_name) {
+    return Lookup(Lut.equalize(Histogram(image_to_use)), image_to_use, dest_image_name);
+  }
+
+  /**
+   * Helper function that counts the values of every channel in one pass.
+   * Each band counts into its own local table and adds it to the total once at the end,
+   * so parallel bands never contend on the counters.
+   * @param image_to_use The image.
+   * @return The red, green and blue counts of each value.
+   */
+  private static long[][] countValues(Photo image_to_use) {
     int width = image_to_use.getWidth();
     int height = image_to_use.getHeight();
-    int[][][] pixels = image_to_use.getPixels();
-    Photo sharpImage = new ImagePhoto(dest_image_name, width, height);
-
-    double[][] sharpen = {
-        {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0},
-        {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
-        {-1 / 8.0, 1 / 4.0, 1.0, 1 / 4.0, -1 / 8.0},
-        {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
-        {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0}
-    };
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        double[] newPixels = new double[3];
-
-        for (int k = -2; k <= 2; k++) {
-          for (int l = -2; l <= 2; l++) {
-            if (j + l >= 0 && j + l < width && k + i >= 0 && k + i < height) {
-              int[] pixel = pixels[j + l][i + k];
-              newPixels[0] += pixel[0] * sharpen[k + 2][l + 2];
-              newPixels[1] += pixel[1] * sharpen[k + 2][l + 2];
-              newPixels[2] += pixel[2] * sharpen[k + 2][l + 2];
-            }
+    long[][] histogram = new long[3][256];
+    bands(height, bandRows(width, height), (y, end) -> {
+      int[] counts = new int[3 * 256];
+      int[] band = new int[width * (end - y)];
+      image_to_use.getRGB(0, y, width, end - y, band, 0, width);
+      for (int rgb : band) {
+        counts[rgb >> 16 & 0xff]++;
+        counts[256 + (rgb >> 8 & 0xff)]++;
+        counts[512 + (rgb & 0xff)]++;
+      }
+      synchronized (histogram) {
+        for (int c = 0; c < 3; c++) {
+          for (int v = 0; v < 256; v++) {
+            histogram[c][v] += counts[c * 256 + v];
           }
         }
+      }
+    });
+    return histogram;
+  }
+
+  @Override
+  public Photo PointwiseInPlace(PixelOp op, String image_name, String dest_image_name) {
+    Photo ph = takeExclusive(image_name);
+    if (ph == null) {
+      return null;
+    }
+    Rectangle area = regionOf(ph);
+    int width = area.width;
+    bands(area.height, bandRows(width, area.height), (y, end) -> {
+      int[] band = new int[width * (end - y)];
+      ph.getRGB(area.x, area.y + y, width, end - y, band, 0, width);
+      op.apply(band, 0, band.length);
+      ph.setRGB(area.x, area.y + y, width, end - y, band, 0, width);
+    });
+    updateDirectory(dest_image_name, ph);
+    return ph;
+  }
+
+  @Override
+  public Photo HorizontalFlipInPlace(String image_name, String dest_image_name) {
+    Photo ph = takeExclusive(image_name);
+    if (ph == null) {
+      return null;
+    }
+    int width = ph.getWidth();
+    bands(ph.getHeight(), bandRows(width, ph.getHeight()), (y, end) -> {
+      int[] band = new int[width * (end - y)];
+      ph.getRGB(0, y, width, end - y, band, 0, width);
+      for (int row = 0; row < band.length; row += width) {
+        for (int i = row, j = row + width - 1; i < j; i++, j--) {
+          int swap = band[i];
+          band[i] = band[j];
+          band[j] = swap;
+        }
+      }
+      ph.setRGB(0, y, width, end - y, band, 0, width);
+    });
+    updateDirectory(dest_image_name, ph);
+    return ph;
+  }
 
-        int newR = Math.min(255, Math.max(0, (int) newPixels[0]));
-        int newG = Math.min(255, Math.max(0, (int) newPixels[1]));
-        int newB = Math.min(255, Math.max(0, (int) newPixels[2]));
-        sharpImage.setPixel(j, i, new int[]{newR, newG, newB});
+  @Override
+  public Photo VerticalFlipInPlace(String image_name, String dest_image_name) {
+    Photo ph = takeExclusive(image_name);
+    if (ph == null) {
+      return null;
+    }
+    int width = ph.getWidth();
+    int height = ph.getHeight();
+    bands(height / 2, Math.max(1, bandRows(width, height) / 2), (y, end) -> {
+      int[] top = new int[width];
+      int[] bottom = new int[width];
+      for (int row = y; row < end; row++) {
+        ph.getRGB(0, row, width, 1, top, 0, width);
+        ph.getRGB(0, height - 1 - row, width, 1, bottom, 0, width);
+        ph.setRGB(0, row, width, 1, bottom, 0, width);
+        ph.setRGB(0, height - 1 - row, width, 1, top, 0, width);
       }
+    });
+    updateDirectory(dest_image_name, ph);
+    return ph;
+  }
+
+  /**
+   * Helper function that takes a stored image out of the directory so its pixels can be
+   * changed in place, if nothing else can see them: no other name shares it, no live
+   * image reads from it lazily, and it holds its own pixels. Views and lazy tiled results
+   * read lazily, and may still be waiting to be saved after their names are gone.
+   * Planes a planar image shares are copied here, on the calling thread, since the bands
+   * that then write to it in parallel must not each copy them. Tiled images and views may
+   * compute their pixels from other images, so they are never changed in place.
+   * @param image_name The name of the image, which no longer names it afterwards.
+   * @return The image, or null if it can't be changed in place.
+   */
+  private static Photo takeExclusive(String image_name) {
+    Photo ph = imageDirectory.get(image_name);
+    if (!(ph instanceof ImagePhoto || ph instanceof MappedPhoto || ph instanceof PlanarPhoto)
+        || references.getOrDefault(ph, 0) != 1 || ((AbstractPhoto) ph).hasReaders()) {
+      return null;
     }
-    return sharpImage;
+    imageDirectory.remove(image_name);
+    release(ph);
+    if (ph instanceof PlanarPhoto) {
+      ((PlanarPhoto) ph).writablePlane(0);
+    }
+    return ph;
   }
 
   @Override
   public Photo Sepia(Photo image_to_use, String dest_image_name) {
-    int height = image_to_use.getHeight();
-    int width = image_to_use.getWidth();
-    int[][][] pixels = image_to_use.getPixels();
-    Photo sepiaImage = new ImagePhoto(dest_image_name, width, height);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] pixel = pixels[j][i];
-        int r = pixel[0];
-        int g = pixel[1];
-        int b = pixel[2];
-        int newR = (int) (0.393 * r + 0.769 * g + 0.189 * b);
-        int newG = (int) (0.349 * r + 0.686 * g + 0.168 * b);
-        int newB = (int) (0.272 * r + 0.534 * g + 0.131 * b);
-        newR = Math.min(255, newR);
-        newG = Math.min(255, newG);
-        newB = Math.min(255, newB);
-        sepiaImage.setPixel(j, i, new int[]{newR, newG, newB});
+    if (image_to_use instanceof PlanarPhoto && region == null) {
+      return sepiaPlanar((PlanarPhoto) image_to_use, dest_image_name);
+    }
+    return render(image_to_use, dest_image_name, image_to_use.getWidth(),
+        image_to_use.getHeight(), pointwise(image_to_use, ColorOps::sepia));
+  }
+
+  /**
+   * Helper function that creates the result of an operation.
+   * If the source is tiled the result is a lazy TiledPhoto that computes tiles when read,
+   * and is recorded as a reader of the source; otherwise a new image is created and
+   * filled right away.
+   * @param image_to_use The source image of the operation.
+   * @param dest_image_name The name of the new image.
+   * @param width The width of the new image.
+   * @param height The height of the new image.
+   * @param source Computes the pixels of the new image.
+   * @return The new image.
+   */
+  private Photo render(Photo image_to_use, String dest_image_name, int width, int height,
+      PixelSource source) {
+    if (region != null && width == image_to_use.getWidth()
+        && height == image_to_use.getHeight()) {
+      source = within(image_to_use, source, regionOf(image_to_use));
+    }
+    if (image_to_use instanceof TiledPhoto) {
+      TiledPhoto lazy = new TiledPhoto(dest_image_name, width, height, source);
+      ((TiledPhoto) image_to_use).addReader(lazy);
+      return lazy;
+    }
+    Photo newImage = createPhoto(dest_image_name, width, height);
+    fill(newImage, source);
+    return newImage;
+  }
+
+  /**
+   * Helper function that gives the part of an image the operations are limited to.
+   * @param image The image.
+   * @return The region inside the image, which may be empty, or the whole image if no
+   *     region is set.
+   */
+  private Rectangle regionOf(Photo image) {
+    Rectangle whole = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+    if (region == null) {
+      return whole;
+    }
+    Rectangle area = whole.intersection(region);
+    return area.isEmpty() ? new Rectangle() : area;
+  }
+
+  /**
+   * Helper function for operations limited to a region: pixels inside the region come from
+   * the operation and all others are copied from its source image.
+   * @param image_to_use The source image.
+   * @param source Computes the pixels of the operation's result.
+   * @param area The region, inside the image.
+   * @return The PixelSource of the result.
+   */
+  private static PixelSource within(Photo image_to_use, PixelSource source, Rectangle area) {
+    return (startX, startY, w, h, rgbArray, offset, scansize) -> {
+      image_to_use.getRGB(startX, startY, w, h, rgbArray, offset, scansize);
+      Rectangle inside = area.intersection(new Rectangle(startX, startY, w, h));
+      if (!inside.isEmpty()) {
+        source.fill(inside.x, inside.y, inside.width, inside.height, rgbArray,
+            offset + (inside.y - startY) * scansize + inside.x - startX, scansize);
       }
+    };
+  }
+
+  /**
+   * Helper function that fills a whole image from a PixelSource, in bands of rows of about
+   * BAND_PIXELS pixels so that very large images never need one full-size buffer.
+   * @param image The image to fill.
+   * @param source Computes the pixels.
+   */
+  private static void fill(Photo image, PixelSource source) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    bands(height, bandRows(width, height), (y, end) -> {
+      int[] band = new int[width * (end - y)];
+      source.fill(0, y, width, end - y, band, 0, width);
+      image.setRGB(0, y, width, end - y, band, 0, width);
+    });
+  }
+
+  /**
+   * Helper function that chooses how many rows an image is filled at a time: about
+   * BAND_PIXELS pixels, and in parallel mode few enough to keep every thread busy.
+   * @param width The image width.
+   * @param height The image height.
+   * @return The number of rows in a band.
+   */
+  private static int bandRows(int width, int height) {
+    int rows = Math.max(1, Math.min(height, BAND_PIXELS / Math.max(1, width)));
+    if (pool != null) {
+      rows = Math.max(1, Math.min(rows, (height + 4 * pool.getParallelism() - 1)
+          / (4 * pool.getParallelism())));
     }
+    return rows;
+  }
+
+  /**
+   * Helper function that runs an action over [0, length) in bands of at most grain,
+   * one after the other or, in parallel mode, on the fork/join pool.
+   * @param length The number of rows or pixels to cover.
+   * @param grain The largest band.
+   * @param band The action, run once for each band.
+   */
+  private static void bands(int length, int grain, Band band) {
+    if (pool == null || length <= grain) {
+      for (int start = 0; start < length; start += grain) {
+        band.run(start, Math.min(length, start + grain));
+      }
+    } else {
+      pool.invoke(new BandTask(0, length, grain, band));
+    }
+  }
+
+  /**
+   * An action over one band [start, end) of rows or pixels.
+   */
+  private interface Band {
+    void run(int start, int end);
+  }
+
+  /**
+   * Splits a range in halves on band boundaries until each part is a single band.
+   */
+  private static final class BandTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int start;
+    private final int end;
+    private final int grain;
+    private final Band band;
+
+    private BandTask(int start, int end, int grain, Band band) {
+      this.start = start;
+      this.end = end;
+      this.grain = grain;
+      this.band = band;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= grain) {
+        band.run(start, end);
+        return;
+      }
+      int middle = start + (end - start + grain) / (2 * grain) * grain;
+      invokeAll(new BandTask(start, middle, grain, band), new BandTask(middle, end, grain, band));
+    }
+  }
+
+  /**
+   * Helper function for operations that change each pixel on its own.
+   * @param image_to_use The source image.
+   * @param op Transforms each row of packed source pixels into the result pixels.
+   * @return The PixelSource of the result.
+   */
+  private static PixelSource pointwise(Photo image_to_use, PixelOp op) {
+    return (startX, startY, w, h, rgbArray, offset, scansize) -> {
+      image_to_use.getRGB(startX, startY, w, h, rgbArray, offset, scansize);
+      for (int i = 0; i < h; i++) {
+        op.apply(rgbArray, offset + i * scansize, offset + i * scansize + w);
+      }
+    };
+  }
+
+  /**
+   * Helper function for AdjustComponent on planar images.
+   * Red, green and blue components share the source plane instead of copying it,
+   * and the other components compute a single grey plane used for all three channels.
+   * @param image_to_use The planar source image.
+   * @param dest_image_name The name of the new image.
+   * @param component_name The component to extract.
+   * @return The planar component image.
+   */
+  private Photo adjustPlanar(PlanarPhoto image_to_use, String dest_image_name,
+      String component_name) {
+    int width = image_to_use.getWidth();
+    int height = image_to_use.getHeight();
+    int channel = channelOf(component_name);
+    if (channel >= 0) {
+      byte[] plane = image_to_use.sharedPlane(channel);
+      return new PlanarPhoto(dest_image_name, width, height, plane, plane, plane);
+    }
+    if (component_name == null) {
+      return new PlanarPhoto(dest_image_name, width, height);
+    }
+    byte[] red = image_to_use.plane(0);
+    byte[] green = image_to_use.plane(1);
+    byte[] blue = image_to_use.plane(2);
+    byte[] grey = new byte[red.length];
+    bands(grey.length, BAND_PIXELS,
+        (start, end) -> ColorOps.component(red, green, blue, grey, start, end, component_name));
+    return new PlanarPhoto(dest_image_name, width, height, grey, grey, grey);
+  }
+
+  /**
+   * Helper function for Lookup on planar images, mapping each plane directly.
+   * @param lut The lookup table.
+   * @param image_to_use The planar source image.
+   * @param dest_image_name The name of the new image.
+   * @return The planar mapped image.
+   */
+  private Photo lookupPlanar(Lut lut, PlanarPhoto image_to_use, String dest_image_name) {
+    PlanarPhoto mappedImage = new PlanarPhoto(dest_image_name, image_to_use.getWidth(),
+        image_to_use.getHeight());
+    for (int c = 0; c < 3; c++) {
+      int channel = c;
+      byte[] src = image_to_use.plane(c);
+      byte[] dst = mappedImage.writablePlane(c);
+      bands(src.length, BAND_PIXELS, (start, end) -> lut.apply(src, dst, channel, start, end));
+    }
+    return mappedImage;
+  }
+
+  /**
+   * Helper function for Sepia on planar images, working on each plane directly.
+   * @param image_to_use The planar source image.
+   * @param dest_image_name The name of the new image.
+   * @return The planar sepia image.
+   */
+  private Photo sepiaPlanar(PlanarPhoto image_to_use, String dest_image_name) {
+    PlanarPhoto sepiaImage = new PlanarPhoto(dest_image_name, image_to_use.getWidth(),
+        image_to_use.getHeight());
+    byte[] red = image_to_use.plane(0);
+    byte[] green = image_to_use.plane(1);
+    byte[] blue = image_to_use.plane(2);
+    byte[] newRed = sepiaImage.writablePlane(0);
+    byte[] newGreen = sepiaImage.writablePlane(1);
+    byte[] newBlue = sepiaImage.writablePlane(2);
+    bands(red.length, BAND_PIXELS, (start, end) -> ColorOps.sepia(red, green, blue, newRed,
+        newGreen, newBlue, start, end));
     return sepiaImage;
   }
+
+  /**
+   * Helper function to find the channel of a red, green or blue component name.
+   * @param component_name The component name.
+   * @return 0, 1 or 2 for red, green or blue, and -1 for any other component.
+   */
+  private static int channelOf(String component_name) {
+    if (component_name == null) {
+      return -1;
+    }
+    switch (component_name) {
+      case "red":
+        return 0;
+      case "green":
+        return 1;
+      case "blue":
+        return 2;
+      default:
+        return -1;
+    }
+  }
 }
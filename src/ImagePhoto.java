@@ -1,66 +1,91 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.Arrays;
 
 /**
  * This class is an implementation of the Photo interface.
- * The implementation contains the name, height, width and pixels attributes.
- * and contains a constructor to initialize said values.
+ * The pixels are stored in one flat row-major array with each pixel packed as 0xRRGGBB.
+ * The array is the raster of a TYPE_INT_RGB BufferedImage, so jpg and png files can be
+ * decoded straight into it and encoded straight from it by ImageIO, with no conversion.
  * It also contains an overridden equals and hashcode function to properly compare Images.
  */
-public class ImagePhoto implements Photo {
+public class ImagePhoto extends AbstractPhoto {
 
-  private final String name;
-  private final int height;
-  private final int width;
-  private final int[][][] pixels;
+  private final BufferedImage image;
+  private final int[] pixels;
 
   /**
    * Constructor for the ImagePhoto class for initialization.
    * @param name Takes in the name for the ImagePhoto.
    * @param width Takes in the width for the ImagePhoto.
    * @param height Takes in the height for the ImagePhoto.
+   * @throws IllegalArgumentException if the image has more pixels than an array can hold.
    */
   public ImagePhoto(String name, int width, int height) {
-    this.name = name;
-    this.height = height;
-    this.width = width;
-    this.pixels = new int[width][height][3];
+    super(name, width, height);
+    if ((long) width * height > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Image is too large for one array: " + width + "x"
+          + height);
+    }
+    if (width > 0 && height > 0) {
+      this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    } else {
+      this.image = null;
+      this.pixels = new int[0];
+    }
+  }
+
+  /**
+   * Gets the BufferedImage whose raster holds the pixels of this image, to be encoded or
+   * decoded into by ImageIO. It shares the pixels, so writing to it changes this image
+   * without clearing its cached fingerprint: only write to it before the image is read.
+   * @return The TYPE_INT_RGB image, or null if this image has no pixels.
+   */
+  public BufferedImage getBufferedImage() {
+    return image;
   }
 
   @Override
   public boolean equals(Object other) {
-    if (!(other instanceof Photo)) {
-      return false;
+    if (other instanceof ImagePhoto) {
+      ImagePhoto that = (ImagePhoto) other;
+      return width == that.width && height == that.height && !fingerprintsDiffer(that)
+          && Arrays.equals(this.pixels, that.pixels);
     }
-    return Arrays.deepEquals(this.pixels, ((ImagePhoto) other).pixels);
+    return super.equals(other);
   }
 
   @Override
   public int hashCode() {
-    return Arrays.deepHashCode(pixels);
+    return super.hashCode();
   }
 
   @Override
-  public String getName() {
-    return name;
+  public int getRGB(int x, int y) {
+    return pixels[y * width + x];
   }
 
   @Override
-  public int getHeight() {
-    return height;
+  public void setRGB(int x, int y, int rgb) {
+    pixels[y * width + x] = rgb;
+    changed();
   }
 
   @Override
-  public int getWidth() {
-    return width;
-  }
-
-  @Override
-  public int[][][] getPixels() {
-    return pixels;
+  public void getRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    for (int i = 0; i < h; i++) {
+      System.arraycopy(pixels, (startY + i) * width + startX, rgbArray, offset + i * scansize, w);
+    }
   }
 
   @Override
-  public void setPixel(int x, int y, int[] rgb) {
-    pixels[x][y] = rgb;
+  public void setRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    for (int i = 0; i < h; i++) {
+      System.arraycopy(rgbArray, offset + i * scansize, pixels, (startY + i) * width + startX, w);
+    }
+    changed();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,192 @@
+import java.util.Arrays;
+
+/**
+ * This class is a convolution kernel in fixed-point form.
+ * Weights are integers that are divided by 2^shift at the end, so the whole convolution
+ * runs in int arithmetic. Kernels whose weights are multiples of a power of two, like
+ * the blur and sharpen kernels, are represented exactly and give the same results as
+ * the double version. A kernel can also be separable, a column vector times a row vector,
+ * which lets it be applied as two one-dimensional passes.
+ */
+public final class Kernel {
+
+  private static final int MAX_SHIFT = 22;
+
+  private final int width;
+  private final int height;
+  private final int[] weights;
+  private final int[] horizontal;
+  private final int[] vertical;
+  private final int shift;
+
+  /**
+   * Constructor for the Kernel class for initialization.
+   * @param width The number of columns, which must be odd.
+   * @param height The number of rows, which must be odd.
+   * @param weights The row-major integer weights.
+   * @param horizontal The row vector of a separable kernel, or null.
+   * @param vertical The column vector of a separable kernel, or null.
+   * @param shift The weights are divided by 2^shift.
+   */
+  private Kernel(int width, int height, int[] weights, int[] horizontal, int[] vertical,
+      int shift) {
+    this.width = width;
+    this.height = height;
+    this.weights = weights;
+    this.horizontal = horizontal;
+    this.vertical = vertical;
+    this.shift = shift;
+  }
+
+  /**
+   * Creates a kernel from real weights.
+   * If every weight times some 2^s with s at most 22 is an integer the kernel is exact,
+   * otherwise the weights are rounded to 22 fractional bits, or fewer for large weights.
+   * @param kernel The weights, with an odd number of rows and of columns.
+   * @return The fixed-point kernel.
+   * @throws IllegalArgumentException if the kernel is empty, ragged or has an even size.
+   */
+  public static Kernel of(double[][] kernel) {
+    if (kernel.length == 0 || kernel.length % 2 == 0 || kernel[0].length % 2 == 0) {
+      throw new IllegalArgumentException("Kernel sizes must be odd");
+    }
+    int height = kernel.length;
+    int width = kernel[0].length;
+    double total = 0;
+    for (double[] row : kernel) {
+      if (row.length != width) {
+        throw new IllegalArgumentException("Kernel rows must all have the same length");
+      }
+      for (double weight : row) {
+        if (!Double.isFinite(weight)) {
+          throw new IllegalArgumentException("Kernel weights must be finite");
+        }
+        total += Math.abs(weight);
+      }
+    }
+    int shift = 0;
+    while (shift < MAX_SHIFT && !isExact(kernel, shift)) {
+      shift++;
+    }
+    while (shift > 0 && 255 * total * (1L << shift) >= Integer.MAX_VALUE) {
+      shift--;
+    }
+    if (255 * total * (1L << shift) >= Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Kernel weights are too large");
+    }
+    int[] weights = new int[width * height];
+    for (int k = 0; k < height; k++) {
+      for (int l = 0; l < width; l++) {
+        weights[k * width + l] = (int) Math.round(Math.scalb(kernel[k][l], shift));
+      }
+    }
+    return new Kernel(width, height, weights, null, null, shift);
+  }
+
+  /**
+   * Creates a separable kernel, whose weight at row k and column l is
+   * vertical[k] * horizontal[l] / 2^shift.
+   * @param horizontal The row vector, with an odd length.
+   * @param vertical The column vector, with an odd length.
+   * @param shift The products are divided by 2^shift.
+   * @return The separable kernel.
+   * @throws IllegalArgumentException if a vector has an even length or the weights are too
+   *     large for int arithmetic.
+   */
+  public static Kernel separable(int[] horizontal, int[] vertical, int shift) {
+    if (horizontal.length % 2 == 0 || vertical.length % 2 == 0) {
+      throw new IllegalArgumentException("Kernel sizes must be odd");
+    }
+    long total = 255L * Arrays.stream(horizontal).mapToLong(Math::abs).sum()
+        * Arrays.stream(vertical).mapToLong(Math::abs).sum();
+    if (total >= Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Kernel weights are too large");
+    }
+    int[] weights = new int[horizontal.length * vertical.length];
+    for (int k = 0; k < vertical.length; k++) {
+      for (int l = 0; l < horizontal.length; l++) {
+        weights[k * horizontal.length + l] = vertical[k] * horizontal[l];
+      }
+    }
+    return new Kernel(horizontal.length, vertical.length, weights, horizontal.clone(),
+        vertical.clone(), shift);
+  }
+
+  /**
+   * Helper function that checks if all weights are integers after scaling by 2^shift.
+   * @param kernel The real weights.
+   * @param shift The scale.
+   * @return True if no weight would be rounded.
+   */
+  private static boolean isExact(double[][] kernel, int shift) {
+    for (double[] row : kernel) {
+      for (double weight : row) {
+        double scaled = Math.scalb(weight, shift);
+        if (scaled != Math.rint(scaled)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the number of columns.
+   * @return The kernel width.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets the number of rows.
+   * @return The kernel height.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Gets the integer weight at a row and column.
+   * @param k The row.
+   * @param l The column.
+   * @return The weight, to be divided by 2^getShift().
+   */
+  public int weight(int k, int l) {
+    return weights[k * width + l];
+  }
+
+  /**
+   * Gets the power of two the integer weights are divided by.
+   * @return The shift.
+   */
+  public int getShift() {
+    return shift;
+  }
+
+  /**
+   * Tells if the kernel can be applied as two one-dimensional passes.
+   * @return True for kernels built with separable.
+   */
+  public boolean isSeparable() {
+    return horizontal != null;
+  }
+
+  /**
+   * Gets the row vector of a separable kernel.
+   * @param l The column.
+   * @return The weight of the column.
+   */
+  public int horizontal(int l) {
+    return horizontal[l];
+  }
+
+  /**
+   * Gets the column vector of a separable kernel.
+   * @param k The row.
+   * @return The weight of the row.
+   */
+  public int vertical(int k) {
+    return vertical[k];
+  }
+}
@@ -0,0 +1,290 @@
+/**
+ * This class is a per-channel lookup table: each of red, green and blue is mapped through
+ * its own table of 256 entries, so any tone curve costs one array read per channel.
+ * Brighten, levels, curves and gamma are all lookup tables, and two tables applied one
+ * after the other compose into a single table with then.
+ * A table that adds the same constant to every channel, clamped to 0..255, is recognized
+ * and applied with the branch-free brighten of ColorOps instead, which the JIT compiler can
+ * vectorize while table lookups can't be.
+ */
+public final class Lut implements PixelOp {
+
+  private final int[][] tables;
+  private final int[] red;
+  private final int[] green;
+  private final int[] blue;
+  private final Integer offset;
+
+  /**
+   * Constructor for the Lut class for initialization.
+   * @param red The red table, 256 entries in 0..255.
+   * @param green The green table.
+   * @param blue The blue table.
+   */
+  private Lut(int[] red, int[] green, int[] blue) {
+    this.tables = new int[][]{red, green, blue};
+    this.red = new int[256];
+    this.green = new int[256];
+    this.blue = new int[256];
+    for (int v = 0; v < 256; v++) {
+      this.red[v] = red[v] << 16;
+      this.green[v] = green[v] << 8;
+      this.blue[v] = blue[v];
+    }
+    this.offset = offsetOf(red, green, blue);
+  }
+
+  /**
+   * Creates a lookup table used for all three channels.
+   * @param table 256 entries in 0..255.
+   * @return The lookup table.
+   * @throws IllegalArgumentException if the table has the wrong length or an entry is out of
+   *     range.
+   */
+  public static Lut of(int[] table) {
+    return of(table, table, table);
+  }
+
+  /**
+   * Creates a lookup table with one table per channel.
+   * @param red The red table, 256 entries in 0..255.
+   * @param green The green table.
+   * @param blue The blue table.
+   * @return The lookup table.
+   * @throws IllegalArgumentException if a table has the wrong length or an entry is out of
+   *     range.
+   */
+  public static Lut of(int[] red, int[] green, int[] blue) {
+    for (int[] table : new int[][]{red, green, blue}) {
+      if (table.length != 256) {
+        throw new IllegalArgumentException("A lookup table has 256 entries");
+      }
+      for (int entry : table) {
+        if (entry < 0 || entry > 255) {
+          throw new IllegalArgumentException("Lookup table entries must be in 0..255");
+        }
+      }
+    }
+    return new Lut(red.clone(), green.clone(), blue.clone());
+  }
+
+  /**
+   * Creates the table that adds a constant to every channel, clamped to 0..255.
+   * @param intensity The constant.
+   * @return The brighten table.
+   */
+  public static Lut brighten(int intensity) {
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      table[v] = Math.min(255, Math.max(0, v + intensity));
+    }
+    return new Lut(table, table, table);
+  }
+
+  /**
+   * Creates the gamma correction table, 255 * (v / 255) ^ (1 / gamma) rounded.
+   * A gamma above 1 brightens the midtones and below 1 darkens them.
+   * @param gamma The gamma.
+   * @return The gamma table.
+   * @throws IllegalArgumentException if gamma is not a positive number.
+   */
+  public static Lut gamma(double gamma) {
+    if (!(gamma > 0) || Double.isInfinite(gamma)) {
+      throw new IllegalArgumentException("Gamma must be a positive number");
+    }
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      table[v] = (int) Math.round(255 * Math.pow(v / 255.0, 1 / gamma));
+    }
+    return new Lut(table, table, table);
+  }
+
+  /**
+   * Creates the levels adjustment table: values up to black become 0, values from white
+   * become 255, and the values between follow the quadratic curve through (black, 0),
+   * (mid, 128) and (white, 255).
+   * @param black The black point.
+   * @param mid The midtone point.
+   * @param white The white point.
+   * @return The levels table.
+   * @throws IllegalArgumentException unless 0 &lt;= black &lt; mid &lt; white &lt;= 255.
+   */
+  public static Lut levels(int black, int mid, int white) {
+    if (black < 0 || black >= mid || mid >= white || white > 255) {
+      throw new IllegalArgumentException("Levels must satisfy 0 <= black < mid < white <= 255");
+    }
+    double b = black;
+    double m = mid;
+    double w = white;
+    double d = b * b * (m - w) - b * (m * m - w * w) + w * m * m - m * w * w;
+    double qa = (-b * (128 - 255) + 128 * w - 255 * m) / d;
+    double qb = (b * b * (128 - 255) + 255 * m * m - 128 * w * w) / d;
+    double qc = (b * b * (255 * m - 128 * w) - b * (255 * m * m - 128 * w * w)) / d;
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      if (v <= black) {
+        table[v] = 0;
+      } else if (v >= white) {
+        table[v] = 255;
+      } else {
+        long y = Math.round(qa * v * v + qb * v + qc);
+        table[v] = (int) Math.min(255, Math.max(0, y));
+      }
+    }
+    return new Lut(table, table, table);
+  }
+
+  /**
+   * Creates a tone curve through control points, straight between neighbouring points and
+   * flat before the first point and after the last one.
+   * @param points The (input, output) points, with inputs in increasing order.
+   * @return The curves table.
+   * @throws IllegalArgumentException if there are no points, a point does not have two
+   *     values in 0..255, or the inputs are not increasing.
+   */
+  public static Lut curves(int[][] points) {
+    if (points.length == 0) {
+      throw new IllegalArgumentException("A curve needs at least one point");
+    }
+    for (int i = 0; i < points.length; i++) {
+      if (points[i].length != 2 || points[i][0] < 0 || points[i][0] > 255
+          || points[i][1] < 0 || points[i][1] > 255) {
+        throw new IllegalArgumentException("Curve points are two values in 0..255");
+      }
+      if (i > 0 && points[i][0] <= points[i - 1][0]) {
+        throw new IllegalArgumentException("Curve inputs must be increasing");
+      }
+    }
+    int[] table = new int[256];
+    int next = 0;
+    for (int v = 0; v < 256; v++) {
+      while (next < points.length && points[next][0] < v) {
+        next++;
+      }
+      if (next == 0) {
+        table[v] = points[0][1];
+      } else if (next == points.length) {
+        table[v] = points[points.length - 1][1];
+      } else {
+        int[] left = points[next - 1];
+        int[] right = points[next];
+        table[v] = (int) Math.round(left[1]
+            + (double) (right[1] - left[1]) * (v - left[0]) / (right[0] - left[0]));
+      }
+    }
+    return new Lut(table, table, table);
+  }
+
+  /**
+   * Creates the histogram equalization table of an image, one table per channel, which
+   * spreads the values of each channel so that they are used about equally often.
+   * Each value maps to its share of the pixels at or below it, the darkest value present
+   * mapping to 0 and the lightest to 255. A channel with a single value is left as it is.
+   * @param histogram The red, green and blue counts of each value, as from Model.Histogram.
+   * @return The equalization table.
+   * @throws IllegalArgumentException if the histogram is not 3 rows of 256 counts.
+   */
+  public static Lut equalize(long[][] histogram) {
+    if (histogram.length != 3) {
+      throw new IllegalArgumentException("A histogram has 3 channels");
+    }
+    int[][] tables = new int[3][256];
+    for (int c = 0; c < 3; c++) {
+      if (histogram[c].length != 256) {
+        throw new IllegalArgumentException("A histogram has 256 counts per channel");
+      }
+      long total = 0;
+      for (long count : histogram[c]) {
+        total += count;
+      }
+      long darkest = 0;
+      for (int v = 0; v < 256 && darkest == 0; v++) {
+        darkest = histogram[c][v];
+      }
+      long below = 0;
+      for (int v = 0; v < 256; v++) {
+        below += histogram[c][v];
+        tables[c][v] = total == darkest ? v
+            : (int) Math.max(0, Math.round((below - darkest) * 255.0 / (total - darkest)));
+      }
+    }
+    return new Lut(tables[0], tables[1], tables[2]);
+  }
+
+  /**
+   * Composes this table followed by another one into a single table.
+   * @param next The table applied to the result of this one.
+   * @return The table of both.
+   */
+  public Lut then(Lut next) {
+    int[][] composed = new int[3][256];
+    for (int c = 0; c < 3; c++) {
+      for (int v = 0; v < 256; v++) {
+        composed[c][v] = next.tables[c][tables[c][v]];
+      }
+    }
+    return new Lut(composed[0], composed[1], composed[2]);
+  }
+
+  /**
+   * Gets one entry of the table.
+   * @param channel 0, 1 or 2 for red, green or blue.
+   * @param v The input value.
+   * @return The output value.
+   */
+  public int get(int channel, int v) {
+    return tables[channel][v];
+  }
+
+  @Override
+  public void apply(int[] rgbArray, int from, int to) {
+    if (offset != null) {
+      ColorOps.brighten(rgbArray, from, to, offset);
+      return;
+    }
+    int[] r = red;
+    int[] g = green;
+    int[] b = blue;
+    for (int i = from; i < to; i++) {
+      int rgb = rgbArray[i];
+      rgbArray[i] = r[rgb >> 16 & 0xff] | g[rgb >> 8 & 0xff] | b[rgb & 0xff];
+    }
+  }
+
+  /**
+   * Maps one plane of a planar image through the table of its channel.
+   * @param src The source plane.
+   * @param dst The destination plane.
+   * @param channel 0, 1 or 2 for red, green or blue.
+   * @param from The index of the first pixel.
+   * @param to The index after the last pixel.
+   */
+  public void apply(byte[] src, byte[] dst, int channel, int from, int to) {
+    if (offset != null) {
+      ColorOps.brighten(src, dst, from, to, offset);
+      return;
+    }
+    int[] table = tables[channel];
+    for (int i = from; i < to; i++) {
+      dst[i] = (byte) table[src[i] & 0xff];
+    }
+  }
+
+  /**
+   * Helper function that recognizes tables that add one constant to every channel.
+   * @param red The red table.
+   * @param green The green table.
+   * @param blue The blue table.
+   * @return The constant, or null if the tables are not of that form.
+   */
+  private static Integer offsetOf(int[] red, int[] green, int[] blue) {
+    int k = red[0] > 0 ? red[0] : red[255] - 255;
+    for (int v = 0; v < 256; v++) {
+      int expected = Math.min(255, Math.max(0, v + k));
+      if (red[v] != expected || green[v] != expected || blue[v] != expected) {
+        return null;
+      }
+    }
+    return k;
+  }
+}
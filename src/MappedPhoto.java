@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is an implementation of the Photo interface that keeps its pixels off the heap.
+ * The pixels are stored as 3 bytes per pixel (red, green, blue) in a memory-mapped
+ * temporary file, so the operating system page cache decides what stays in memory.
+ * A single mapping is limited to 2GB, so the file is mapped in chunks of whole rows.
+ * The file is deleted as soon as it is mapped and disappears when the image is collected.
+ */
+public class MappedPhoto extends AbstractPhoto {
+
+  private static final long CHUNK_BYTES = 1L << 30;
+
+  private final MappedByteBuffer[] chunks;
+  private final int rowBytes;
+  private final int rowsPerChunk;
+
+  /**
+   * Constructor for the MappedPhoto class for initialization.
+   * @param name Takes in the name for the MappedPhoto.
+   * @param width Takes in the width for the MappedPhoto.
+   * @param height Takes in the height for the MappedPhoto.
+   * @throws UncheckedIOException if the backing file cannot be created or mapped.
+   */
+  public MappedPhoto(String name, int width, int height) {
+    super(name, width, height);
+    this.rowBytes = Math.multiplyExact(width, 3);
+    this.rowsPerChunk = (int) Math.max(1, CHUNK_BYTES / Math.max(1, rowBytes));
+    this.chunks = new MappedByteBuffer[(height + rowsPerChunk - 1) / rowsPerChunk];
+    try {
+      Path file = Files.createTempFile("photo-", ".raster");
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+          StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+        for (int c = 0; c < chunks.length; c++) {
+          int rows = Math.min(rowsPerChunk, height - c * rowsPerChunk);
+          chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE,
+              (long) c * rowsPerChunk * rowBytes, (long) rows * rowBytes);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not map image " + name, e);
+    }
+  }
+
+  @Override
+  public int getRGB(int x, int y) {
+    MappedByteBuffer chunk = chunks[y / rowsPerChunk];
+    int index = (y % rowsPerChunk) * rowBytes + x * 3;
+    return (chunk.get(index) & 0xff) << 16 | (chunk.get(index + 1) & 0xff) << 8
+        | chunk.get(index + 2) & 0xff;
+  }
+
+  @Override
+  public void setRGB(int x, int y, int rgb) {
+    MappedByteBuffer chunk = chunks[y / rowsPerChunk];
+    int index = (y % rowsPerChunk) * rowBytes + x * 3;
+    chunk.put(index, (byte) (rgb >> 16));
+    chunk.put(index + 1, (byte) (rgb >> 8));
+    chunk.put(index + 2, (byte) rgb);
+    changed();
+  }
+
+  @Override
+  public void getRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    byte[] row = new byte[w * 3];
+    for (int i = 0; i < h; i++) {
+      int y = startY + i;
+      chunks[y / rowsPerChunk].get((y % rowsPerChunk) * rowBytes + startX * 3, row);
+      int dst = offset + i * scansize;
+      for (int j = 0, k = 0; j < w; j++, k += 3) {
+        rgbArray[dst + j] = (row[k] & 0xff) << 16 | (row[k + 1] & 0xff) << 8 | row[k + 2] & 0xff;
+      }
+    }
+  }
+
+  @Override
+  public void setRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    byte[] row = new byte[w * 3];
+    for (int i = 0; i < h; i++) {
+      int y = startY + i;
+      int src = offset + i * scansize;
+      for (int j = 0, k = 0; j < w; j++, k += 3) {
+        int rgb = rgbArray[src + j];
+        row[k] = (byte) (rgb >> 16);
+        row[k + 1] = (byte) (rgb >> 8);
+        row[k + 2] = (byte) rgb;
+      }
+      chunks[y / rowsPerChunk].put((y % rowsPerChunk) * rowBytes + startX * 3, row);
+    }
+    changed();
+  }
+}
@@ -13,11 +13,96 @@ public interface Model {
 
   /**
    * Updates the image directory by appending the provided key with the given Photo.
+   * If an image with the same pixels is already stored, the key shares that image instead.
    * @param Key the String Name for the image.
    * @param ph the Photo object to be associated with the key.
    */
   public void updateDirectory(String Key, Photo ph);
 
+  /**
+   * Selects how the pixels of newly created images are stored.
+   * Images that already exist keep their storage.
+   * @param mode the storage to use for new images.
+   */
+  public void setStorageMode(StorageMode mode);
+
+  /**
+   * Creates a new black image using the selected storage mode.
+   * Images with more than 2^28 pixels are always memory-mapped outside the heap.
+   * @param name the name of the new image.
+   * @param width the width of the new image.
+   * @param height the height of the new image.
+   * @return the new Photo object.
+   */
+  public Photo createPhoto(String name, int width, int height);
+
+  /**
+   * Gets the storage mode used for newly created images.
+   * @return the selected storage mode.
+   */
+  public StorageMode getStorageMode();
+
+  /**
+   * Selects how many computed tiles of tiled images are kept in memory at once.
+   * Evicted tiles are computed again when read. It starts at a quarter of the maximum heap.
+   * @param tiles the number of 256x256 tiles.
+   * @throws IllegalArgumentException if tiles is less than 1.
+   */
+  public void setTileCache(int tiles);
+
+  /**
+   * Gets how many computed tiles of tiled images are kept in memory at once.
+   * @return the number of 256x256 tiles.
+   */
+  public int getTileCache();
+
+  /**
+   * Selects how many threads each operation is split across.
+   * Operations are cut into bands of rows that run on a fork/join pool; the result is
+   * the same as with a single thread.
+   * @param parallelism the number of threads, 1 to run on the calling thread only.
+   * @throws IllegalArgumentException if parallelism is less than 1.
+   */
+  public void setParallelism(int parallelism);
+
+  /**
+   * Gets the number of threads each operation is split across.
+   * @return the parallelism, 1 when operations run on the calling thread.
+   */
+  public int getParallelism();
+
+  /**
+   * Limits the following operations to a rectangle of their source image until
+   * clearRegion is called. Operations that compute each pixel from its own value or its
+   * neighbours', such as the color operations, blur, sharpen and Convolve, then compute
+   * only the pixels inside the rectangle and copy the others from the source; pixels just
+   * outside it are still read as neighbours. Parts of the rectangle outside an image are
+   * ignored. Other operations are not affected.
+   * @param x the x-coordinate of the top left pixel of the rectangle.
+   * @param y the y-coordinate of the top left pixel of the rectangle.
+   * @param width the width of the rectangle.
+   * @param height the height of the rectangle.
+   * @throws IllegalArgumentException if x or y is negative or a size is not positive.
+   */
+  public void setRegion(int x, int y, int width, int height);
+
+  /**
+   * Makes the following operations process whole images again.
+   */
+  public void clearRegion();
+
+  /**
+   * Creates a new image whose pixels are computed by the given source.
+   * In the tiled storage mode the pixels are only computed when they are first read,
+   * in every other mode they are computed right away.
+   * @param name the name of the new image.
+   * @param width the width of the new image.
+   * @param height the height of the new image.
+   * @param source computes the pixels of any rectangle of the new image.
+   * @return the new Photo object.
+   */
+  public Photo createPhoto(String name, int width, int height, PixelSource source);
+
 
   /**
    * Adjusts the color component (red, green, blue, value, intensity, luma) of an image.
@@ -30,6 +115,7 @@ public interface Model {
 
   /**
    * Updates the imageDirectory with a horizontally flipped image from the given image.
+   * Flips, transposes and crops return views that share the pixels of the given image.
    * @param image_to_use the original Photo object.
    * @param dest_image_name the name of the new horizontally flipped image.
    * @return the Photo object with the horizontal flip applied.
@@ -44,6 +130,48 @@ public interface Model {
    */
   public Photo VerticalFlip(Photo image_to_use, String dest_image_name);
 
+  /**
+   * Creates an image with the rows and columns of the given image swapped.
+   * @param image_to_use the original Photo object.
+   * @param dest_image_name the name of the new transposed image.
+   * @return the Photo object with the transpose applied.
+   */
+  public Photo Transpose(Photo image_to_use, String dest_image_name);
+
+  /**
+   * Creates an image from a rectangle of the given image.
+   * @param image_to_use the original Photo object.
+   * @param dest_image_name the name of the new cropped image.
+   * @param x the x-coordinate of the top left pixel of the rectangle.
+   * @param y the y-coordinate of the top left pixel of the rectangle.
+   * @param width the width of the rectangle.
+   * @param height the height of the rectangle.
+   * @return the cropped Photo object, or null if the rectangle is not inside the image.
+   */
+  public Photo Crop(Photo image_to_use, String dest_image_name, int x, int y, int width,
+      int height);
+
+  /**
+   * Creates a copy of the given image scaled to a new size, each pixel the average of the
+   * area it covers.
+   * @param image_to_use the original Photo object.
+   * @param dest_image_name the name of the new resized image.
+   * @param width the width of the new image.
+   * @param height the height of the new image.
+   * @return the resized Photo object, or null if a size is not positive.
+   */
+  public Photo Resize(Photo image_to_use, String dest_image_name, int width, int height);
+
+  /**
+   * Creates a copy of the given image scaled down so that its longer side is at most size,
+   * keeping its proportions. Images already that small are copied unchanged.
+   * @param image_to_use the original Photo object.
+   * @param dest_image_name the name of the new thumbnail image.
+   * @param size the largest width and height of the new image.
+   * @return the thumbnail Photo object, or null if size is not positive.
+   */
+  public Photo Thumbnail(Photo image_to_use, String dest_image_name, int size);
+
   /**
    * Updates the imageDirectory with a brightened image.
    * @param intensity The brightening constant applied to all pixels.
@@ -93,6 +221,103 @@ public interface Model {
    */
   public Photo Sharpen(Photo image_to_use, String dest_image_name);
 
+  /**
+   * Applies an arbitrary kernel to the image.
+   * The kernel is given as rows of weights and must have an odd number of rows and columns;
+   * the center weight lands on the pixel being computed. Large kernels are applied with FFTs.
+   * @param kernel the weights of the filter.
+   * @param image_to_use the original image.
+   * @param dest_image_name the name of the new filtered image.
+   * @return the filtered image, or null if the kernel is invalid.
+   */
+  public Photo Convolve(double[][] kernel, Photo image_to_use, String dest_image_name);
+
+  /**
+   * Applies an affine color transform to every pixel in a single pass.
+   * A chain of brighten, sepia and component steps built as one ColorMatrix is applied
+   * with one read and one write of each pixel.
+   * @param matrix the color transform.
+   * @param image_to_use the original image.
+   * @param dest_image_name the name of the new image.
+   * @return the transformed image.
+   */
+  public Photo ColorTransform(ColorMatrix matrix, Photo image_to_use, String dest_image_name);
+
+  /**
+   * Maps every channel of every pixel through a lookup table.
+   * @param lut the per-channel tables.
+   * @param image_to_use the original image.
+   * @param dest_image_name the name of the new image.
+   * @return the mapped image.
+   */
+  public Photo Lookup(Lut lut, Photo image_to_use, String dest_image_name);
+
+  /**
+   * Applies any operation that changes each pixel on its own, in a single pass.
+   * @param op the operation, for example several steps chained with andThen.
+   * @param image_to_use the original image.
+   * @param dest_image_name the name of the new image.
+   * @return the transformed image.
+   */
+  public Photo Pointwise(PixelOp op, Photo image_to_use, String dest_image_name);
+
+  /**
+   * Counts how many pixels of an image have each value in each channel.
+   * The counts are kept with the image until it is next written, so asking again is free.
+   * @param image_to_use the image.
+   * @return three rows of 256 counts, for red, green and blue.
+   */
+  public long[][] Histogram(Photo image_to_use);
+
+  /**
+   * Draws the histogram of an image as a 256x256 image with a line graph for each of the
+   * red, green and blue channels on a white background with a grey grid, scaled so the
+   * largest count reaches the top.
+   * @param image_to_use the image.
+   * @param dest_image_name the name of the new image.
+   * @return the histogram image.
+   */
+  public Photo HistogramImage(Photo image_to_use, String dest_image_name);
+
+  /**
+   * Equalizes the histogram of each channel of an image, see Lut.equalize.
+   * @param image_to_use the original image.
+   * @param dest_image_name the name of the new image.
+   * @return the equalized image.
+   */
+  public Photo Equalize(Photo image_to_use, String dest_image_name);
+
+  /**
+   * Applies an operation that changes each pixel on its own to a stored image's pixels
+   * directly, without allocating a new image, and stores the result under a new name.
+   * This is only done when no other name, view or lazy image shares the pixels.
+   * @param op the operation.
+   * @param image_name the name of the stored image; unless it is also dest_image_name,
+   *     it no longer names an image afterwards.
+   * @param dest_image_name the name of the result.
+   * @return the changed image, or null if the image is shared, a view or a tiled image,
+   *     in which case nothing was changed.
+   */
+  public Photo PointwiseInPlace(PixelOp op, String image_name, String dest_image_name);
+
+  /**
+   * Mirrors a stored image left to right by swapping its pixels, under the same
+   * conditions as PointwiseInPlace, instead of creating a flipped view.
+   * @param image_name the name of the stored image.
+   * @param dest_image_name the name of the result.
+   * @return the flipped image, or null if it can't be changed in place.
+   */
+  public Photo HorizontalFlipInPlace(String image_name, String dest_image_name);
+
+  /**
+   * Mirrors a stored image top to bottom by swapping its rows, under the same conditions
+   * as PointwiseInPlace, instead of creating a flipped view.
+   * @param image_name the name of the stored image.
+   * @param dest_image_name the name of the result.
+   * @return the flipped image, or null if it can't be changed in place.
+   */
+  public Photo VerticalFlipInPlace(String image_name, String dest_image_name);
+
   /**
    * Converts an image to sepia tone.
    * @param image_to_use the original image.
@@ -2,8 +2,9 @@
  * The Photo interface represents an image or photo in the application.
  * It defines the behaviors and properties that an image object should have.
  * The interface provides methods to access the image's metadata (name, dimensions).
+ * Pixels are exchanged as packed 0xRRGGBB integers, each channel in the range 0..255.
  */
-public interface Photo {
+public interface Photo extends PixelReader {
   /**
    * Gets the name of the image.
    * @return the name of the image as a string.
@@ -27,6 +28,7 @@ public interface Photo {
    * The pixel data is represented as a 3D array.
    * First 2 Dimensions are  the coordinates (x, y) of the pixel.
    * The 3rd dimension is the RGB values for each pixel.
+   * The array is a snapshot of the image, prefer getRGB for reading single pixels.
    * @return a 3D array of integers representing the RGB values of each pixel in the image.
    */
   public int[][][] getPixels();
@@ -38,4 +40,56 @@ public interface Photo {
    * @param rgb an array of three integers representing the RGB color values.
    */
   public void setPixel(int x, int y, int[] rgb);
+
+  /**
+   * Gets the packed RGB value of a pixel at the specified coordinates.
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the pixel packed as 0xRRGGBB.
+   */
+  public int getRGB(int x, int y);
+
+  /**
+   * Sets the packed RGB value of a pixel at the specified coordinates.
+   * @param x   the x-coordinate of the pixel.
+   * @param y   the y-coordinate of the pixel.
+   * @param rgb the pixel packed as 0xRRGGBB.
+   */
+  public void setRGB(int x, int y, int rgb);
+
+  /**
+   * Reads a rectangle of packed RGB values into an array, in the same way as BufferedImage.
+   * The pixel (x, y) is stored at rgbArray[offset + (y - startY) * scansize + (x - startX)].
+   * @param startX   the x-coordinate of the top left pixel.
+   * @param startY   the y-coordinate of the top left pixel.
+   * @param w        the width of the rectangle.
+   * @param h        the height of the rectangle.
+   * @param rgbArray the array the pixels are read into.
+   * @param offset   the index of the top left pixel in the array.
+   * @param scansize the distance in the array between two rows of the rectangle.
+   */
+  public void getRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize);
+
+  /**
+   * Writes a rectangle of packed RGB values from an array, in the same way as BufferedImage.
+   * The pixel (x, y) is taken from rgbArray[offset + (y - startY) * scansize + (x - startX)].
+   * @param startX   the x-coordinate of the top left pixel.
+   * @param startY   the y-coordinate of the top left pixel.
+   * @param w        the width of the rectangle.
+   * @param h        the height of the rectangle.
+   * @param rgbArray the array the pixels are written from.
+   * @param offset   the index of the top left pixel in the array.
+   * @param scansize the distance in the array between two rows of the rectangle.
+   */
+  public void setRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize);
+
+  /**
+   * Gets a 64-bit fingerprint of the size and pixels of the image.
+   * Images with the same pixels always have the same fingerprint. It is computed once
+   * and kept until the image is next written.
+   * @return the fingerprint of the image.
+   */
+  public long fingerprint();
 }
@@ -0,0 +1,28 @@
+/**
+ * The PixelOp interface transforms a run of packed 0xRRGGBB pixels in place, each pixel
+ * on its own. Working on a whole run instead of one pixel per call keeps the loop inside
+ * the operation, where the JIT compiler can unroll it and use SIMD instructions.
+ */
+@FunctionalInterface
+public interface PixelOp {
+  /**
+   * Transforms the pixels rgbArray[from] to rgbArray[to - 1].
+   * @param rgbArray the packed pixels.
+   * @param from     the index of the first pixel.
+   * @param to       the index after the last pixel.
+   */
+  void apply(int[] rgbArray, int from, int to);
+
+  /**
+   * Chains this operation followed by another one, applied to each run of pixels in turn
+   * while it is still in cache.
+   * @param next the operation applied to the result of this one.
+   * @return the operation of both.
+   */
+  default PixelOp andThen(PixelOp next) {
+    return (rgbArray, from, to) -> {
+      apply(rgbArray, from, to);
+      next.apply(rgbArray, from, to);
+    };
+  }
+}
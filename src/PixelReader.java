@@ -0,0 +1,32 @@
+/**
+ * The PixelReader interface reads rectangles of pixels that already exist.
+ * It is the read-only part of a Photo, so code that only reads an image, such as the
+ * ConvolutionEngine, can also read rows that are not a whole image.
+ */
+public interface PixelReader {
+  /**
+   * Gets the height of the image.
+   * @return the height of the image as an integer.
+   */
+  public int getHeight();
+
+  /**
+   * Gets the width of the image.
+   * @return the width of the image as an integer.
+   */
+  public int getWidth();
+
+  /**
+   * Reads a rectangle of packed 0xRRGGBB pixels, in the same layout as Photo.getRGB.
+   * The pixel (x, y) is stored at rgbArray[offset + (y - startY) * scansize + (x - startX)].
+   * @param startX   the x-coordinate of the top left pixel.
+   * @param startY   the y-coordinate of the top left pixel.
+   * @param w        the width of the rectangle.
+   * @param h        the height of the rectangle.
+   * @param rgbArray the array the pixels are read into.
+   * @param offset   the index of the top left pixel in the array.
+   * @param scansize the distance in the array between two rows of the rectangle.
+   */
+  public void getRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize);
+}
@@ -0,0 +1,20 @@
+/**
+ * The PixelSource interface computes the pixels of any rectangle of an image on demand.
+ * Image operations are written as pixel sources so that the same code can fill a whole
+ * image band by band, or compute only the tiles of a TiledPhoto that are actually read.
+ */
+@FunctionalInterface
+public interface PixelSource {
+  /**
+   * Computes a rectangle of packed 0xRRGGBB pixels, in the same layout as Photo.getRGB.
+   * The pixel (x, y) is stored at rgbArray[offset + (y - startY) * scansize + (x - startX)].
+   * @param startX   the x-coordinate of the top left pixel.
+   * @param startY   the y-coordinate of the top left pixel.
+   * @param w        the width of the rectangle.
+   * @param h        the height of the rectangle.
+   * @param rgbArray the array the pixels are written to.
+   * @param offset   the index of the top left pixel in the array.
+   * @param scansize the distance in the array between two rows of the rectangle.
+   */
+  void fill(int startX, int startY, int w, int h, int[] rgbArray, int offset, int scansize);
+}
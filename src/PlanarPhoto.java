@@ -0,0 +1,162 @@
+import java.util.Arrays;
+
+/**
+ * This class is an implementation of the Photo interface that stores each channel separately.
+ * The red, green and blue channels are kept in three row-major byte planes,
+ * which is a quarter of the memory of one int per channel.
+ * Planes can be shared between images, for example by channel components, split and combine.
+ * Shared planes are copied on the first write so that no other image sees the change.
+ */
+public class PlanarPhoto extends AbstractPhoto {
+
+  private byte[] red;
+  private byte[] green;
+  private byte[] blue;
+  private boolean shared;
+
+  /**
+   * Constructor for the PlanarPhoto class for initialization.
+   * @param name Takes in the name for the PlanarPhoto.
+   * @param width Takes in the width for the PlanarPhoto.
+   * @param height Takes in the height for the PlanarPhoto.
+   */
+  public PlanarPhoto(String name, int width, int height) {
+    super(name, width, height);
+    int size = Math.multiplyExact(width, height);
+    this.red = new byte[size];
+    this.green = new byte[size];
+    this.blue = new byte[size];
+  }
+
+  /**
+   * Constructor for a PlanarPhoto that shares existing planes.
+   * The planes must come from sharedPlane so their owners also copy on write.
+   * @param name Takes in the name for the PlanarPhoto.
+   * @param width Takes in the width for the PlanarPhoto.
+   * @param height Takes in the height for the PlanarPhoto.
+   * @param red The red plane.
+   * @param green The green plane.
+   * @param blue The blue plane.
+   */
+  PlanarPhoto(String name, int width, int height, byte[] red, byte[] green, byte[] blue) {
+    super(name, width, height);
+    this.red = red;
+    this.green = green;
+    this.blue = blue;
+    this.shared = true;
+  }
+
+  /**
+   * Hands out one of the planes for sharing with another PlanarPhoto.
+   * After this call this image copies its planes before its next write.
+   * @param channel 0 for red, 1 for green and 2 for blue.
+   * @return The plane for the given channel.
+   */
+  byte[] sharedPlane(int channel) {
+    shared = true;
+    return plane(channel);
+  }
+
+  /**
+   * Gives read access to one of the planes.
+   * Callers must not write to the returned array.
+   * @param channel 0 for red, 1 for green and 2 for blue.
+   * @return The plane for the given channel.
+   */
+  byte[] plane(int channel) {
+    switch (channel) {
+      case 0:
+        return red;
+      case 1:
+        return green;
+      case 2:
+        return blue;
+      default:
+        throw new IllegalArgumentException("Invalid channel " + channel);
+    }
+  }
+
+  /**
+   * Gives write access to the planes, copying them first if they are shared.
+   * The copy is not synchronized, so an image that several threads write to must be given
+   * its own planes with this call before they start.
+   * @param channel 0 for red, 1 for green and 2 for blue.
+   * @return The plane for the given channel.
+   */
+  byte[] writablePlane(int channel) {
+    if (shared) {
+      red = red.clone();
+      green = green.clone();
+      blue = blue.clone();
+      shared = false;
+    }
+    changed();
+    return plane(channel);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other instanceof PlanarPhoto) {
+      PlanarPhoto that = (PlanarPhoto) other;
+      return width == that.width && height == that.height && !fingerprintsDiffer(that)
+          && Arrays.equals(red, that.red) && Arrays.equals(green, that.green)
+          && Arrays.equals(blue, that.blue);
+    }
+    return super.equals(other);
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode();
+  }
+
+  @Override
+  public int getRGB(int x, int y) {
+    int i = y * width + x;
+    return (red[i] & 0xff) << 16 | (green[i] & 0xff) << 8 | blue[i] & 0xff;
+  }
+
+  @Override
+  public void setRGB(int x, int y, int rgb) {
+    if (shared) {
+      writablePlane(0);
+    }
+    int i = y * width + x;
+    red[i] = (byte) (rgb >> 16);
+    green[i] = (byte) (rgb >> 8);
+    blue[i] = (byte) rgb;
+    changed();
+  }
+
+  @Override
+  public void getRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    for (int i = 0; i < h; i++) {
+      int src = (startY + i) * width + startX;
+      int dst = offset + i * scansize;
+      for (int j = 0; j < w; j++) {
+        rgbArray[dst + j] = (red[src + j] & 0xff) << 16 | (green[src + j] & 0xff) << 8
+            | blue[src + j] & 0xff;
+      }
+    }
+  }
+
+  @Override
+  public void setRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    if (shared) {
+      writablePlane(0);
+    }
+    for (int i = 0; i < h; i++) {
+      int src = offset + i * scansize;
+      int dst = (startY + i) * width + startX;
+      for (int j = 0; j < w; j++) {
+        int rgb = rgbArray[src + j];
+        red[dst + j] = (byte) (rgb >> 16);
+        green[dst + j] = (byte) (rgb >> 8);
+        blue[dst + j] = (byte) rgb;
+      }
+    }
+    changed();
+  }
+}
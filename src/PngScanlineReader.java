@@ -0,0 +1,293 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class reads a PNG file one row at a time, inflating its IDAT chunks as a stream
+ * and undoing the row filters with only the previous row kept.
+ * It reads the non-interlaced 8-bit rgb, rgba and palette images that make up nearly all
+ * photos. Other kinds, and files with an embedded color profile, are left to ImageIO,
+ * which converts their colors in ways these plain rows would not match.
+ */
+public final class PngScanlineReader implements ScanlineReader {
+
+  private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+
+  private final DataInputStream rows;
+  private final int width;
+  private final int height;
+  private final int bytesPerPixel;
+  private final int[] palette;
+  private byte[] current;
+  private byte[] previous;
+
+  /**
+   * Constructor for the PngScanlineReader class for initialization.
+   * @param rows The inflated image data.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @param bytesPerPixel 3 for rgb, 4 for rgba and 1 for palette images.
+   * @param palette The packed palette colors, or null if the image has none.
+   */
+  private PngScanlineReader(DataInputStream rows, int width, int height, int bytesPerPixel,
+      int[] palette) {
+    this.rows = rows;
+    this.width = width;
+    this.height = height;
+    this.bytesPerPixel = bytesPerPixel;
+    this.palette = palette;
+    this.current = new byte[width * bytesPerPixel];
+    this.previous = new byte[width * bytesPerPixel];
+  }
+
+  /**
+   * Opens a PNG file and reads the chunks before its image data.
+   * @param filename The file.
+   * @return The reader, or null if the file is a kind of PNG this class does not read.
+   * @throws IOException if the file can't be opened or is not a PNG.
+   */
+  public static PngScanlineReader open(String filename) throws IOException {
+    DataInputStream file = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(filename), 1 << 16));
+    try {
+      if (file.readLong() != SIGNATURE || file.readInt() != 13
+          || file.readInt() != chunk("IHDR")) {
+        throw new IOException(filename + " is not a PNG file");
+      }
+      int width = file.readInt();
+      int height = file.readInt();
+      int bitDepth = file.readUnsignedByte();
+      int colorType = file.readUnsignedByte();
+      file.readUnsignedByte();
+      file.readUnsignedByte();
+      int interlace = file.readUnsignedByte();
+      file.readInt();
+      int bytesPerPixel = colorType == 2 ? 3 : colorType == 6 ? 4 : colorType == 3 ? 1 : 0;
+      if (width <= 0 || height <= 0 || bitDepth != 8 || bytesPerPixel == 0 || interlace != 0
+          || (long) width * bytesPerPixel > Integer.MAX_VALUE - 1) {
+        file.close();
+        return null;
+      }
+      int[] palette = null;
+      while (true) {
+        int length = file.readInt();
+        int type = file.readInt();
+        if (type == chunk("IDAT")) {
+          if (bytesPerPixel == 1 && palette == null) {
+            throw new IOException(filename + " has no palette");
+          }
+          InputStream data = new ChunkStream(file, length);
+          return new PngScanlineReader(new DataInputStream(new InflaterInputStream(data)),
+              width, height, bytesPerPixel, palette);
+        } else if (type == chunk("PLTE") && colorType == 3) {
+          palette = new int[256];
+          int colors = Math.min(256, length / 3);
+          for (int i = 0; i < colors; i++) {
+            palette[i] = file.readUnsignedByte() << 16 | file.readUnsignedByte() << 8
+                | file.readUnsignedByte();
+          }
+          skip(file, length - 3 * colors);
+        } else if (type == chunk("iCCP") || type == chunk("IEND")) {
+          file.close();
+          return null;
+        } else {
+          skip(file, length);
+        }
+        file.readInt();
+      }
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public void readRow(int[] row) throws IOException {
+    byte[] swap = previous;
+    previous = current;
+    current = swap;
+    int filter = rows.readUnsignedByte();
+    rows.readFully(current);
+    unfilter(filter, current, previous, bytesPerPixel);
+    byte[] line = current;
+    if (palette != null) {
+      for (int j = 0; j < width; j++) {
+        row[j] = palette[line[j] & 0xff];
+      }
+    } else {
+      for (int j = 0, i = 0; j < width; j++, i += bytesPerPixel) {
+        row[j] = (line[i] & 0xff) << 16 | (line[i + 1] & 0xff) << 8 | line[i + 2] & 0xff;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    rows.close();
+  }
+
+  /**
+   * Helper function that undoes the filter of one row in place.
+   * @param filter The filter type, 0 to 4.
+   * @param line The filtered row.
+   * @param above The unfiltered row before it, all zero for the first row.
+   * @param bpp The number of bytes per pixel.
+   * @throws IOException if the filter type is unknown.
+   */
+  private static void unfilter(int filter, byte[] line, byte[] above, int bpp)
+      throws IOException {
+    switch (filter) {
+      case 0:
+        break;
+      case 1:
+        for (int i = bpp; i < line.length; i++) {
+          line[i] += line[i - bpp];
+        }
+        break;
+      case 2:
+        for (int i = 0; i < line.length; i++) {
+          line[i] += above[i];
+        }
+        break;
+      case 3:
+        for (int i = 0; i < line.length; i++) {
+          int left = i < bpp ? 0 : line[i - bpp] & 0xff;
+          line[i] += (left + (above[i] & 0xff)) >> 1;
+        }
+        break;
+      case 4:
+        for (int i = 0; i < line.length; i++) {
+          int left = i < bpp ? 0 : line[i - bpp] & 0xff;
+          int upperLeft = i < bpp ? 0 : above[i - bpp] & 0xff;
+          line[i] += paeth(left, above[i] & 0xff, upperLeft);
+        }
+        break;
+      default:
+        throw new IOException("Unknown PNG filter " + filter);
+    }
+  }
+
+  /**
+   * Helper function for the Paeth predictor: whichever of left, above and upper left is
+   * closest to left + above - upper left.
+   * @param a The byte to the left.
+   * @param b The byte above.
+   * @param c The byte above and to the left.
+   * @return The prediction.
+   */
+  static int paeth(int a, int b, int c) {
+    int p = a + b - c;
+    int pa = Math.abs(p - a);
+    int pb = Math.abs(p - b);
+    int pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) {
+      return a;
+    }
+    return pb <= pc ? b : c;
+  }
+
+  /**
+   * Helper function that skips bytes of the file, which skipBytes alone may stop short of.
+   * @param file The file.
+   * @param n The number of bytes to skip.
+   * @throws IOException if the file ends first.
+   */
+  private static void skip(DataInputStream file, int n) throws IOException {
+    while (n > 0) {
+      int skipped = file.skipBytes(n);
+      if (skipped == 0) {
+        file.readByte();
+        skipped = 1;
+      }
+      n -= skipped;
+    }
+  }
+
+  /**
+   * Helper function that gives the type code of a chunk name.
+   * @param name The four letter name.
+   * @return The name as a big-endian int.
+   */
+  static int chunk(String name) {
+    return name.charAt(0) << 24 | name.charAt(1) << 16 | name.charAt(2) << 8 | name.charAt(3);
+  }
+
+  /**
+   * The data of consecutive IDAT chunks as one stream, skipping the chunk CRCs and headers.
+   */
+  private static final class ChunkStream extends InputStream {
+    private final DataInputStream file;
+    private int remaining;
+
+    private ChunkStream(DataInputStream file, int length) {
+      this.file = file;
+      this.remaining = length;
+    }
+
+    /**
+     * Helper function that moves on to the next IDAT chunk when the current one is used up.
+     * @return False if there are no more IDAT chunks.
+     * @throws IOException if the file can't be read.
+     */
+    private boolean more() throws IOException {
+      while (remaining == 0) {
+        file.readInt();
+        int length = file.readInt();
+        if (file.readInt() != chunk("IDAT")) {
+          remaining = -1;
+          return false;
+        }
+        remaining = length;
+      }
+      return remaining > 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!more()) {
+        return -1;
+      }
+      int c = file.read();
+      if (c < 0) {
+        throw new EOFException("PNG file ends early");
+      }
+      remaining--;
+      return c;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!more()) {
+        return -1;
+      }
+      int n = file.read(b, off, Math.min(len, remaining));
+      if (n < 0) {
+        throw new EOFException("PNG file ends early");
+      }
+      remaining -= n;
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      file.close();
+    }
+  }
+}
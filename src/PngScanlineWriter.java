@@ -0,0 +1,180 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * This class writes an 8-bit rgb PNG file one row at a time. Each row is filtered with
+ * whichever of the five PNG filters leaves the smallest bytes, the usual heuristic, and
+ * deflated as a stream into IDAT chunks of up to 64 KiB.
+ */
+public final class PngScanlineWriter implements ScanlineWriter {
+
+  private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  private final DataOutputStream file;
+  private final DeflaterOutputStream rows;
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+  private final int width;
+  private byte[] current;
+  private byte[] previous;
+  private final byte[][] filtered = new byte[5][];
+
+  /**
+   * Constructor for the PngScanlineWriter class, which creates the file and writes its
+   * header.
+   * @param filename The file.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @throws IOException if the file can't be created.
+   */
+  public PngScanlineWriter(String filename, int width, int height) throws IOException {
+    this.file = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(filename), CHUNK_SIZE));
+    this.width = width;
+    this.current = new byte[width * 3];
+    this.previous = new byte[width * 3];
+    for (int f = 0; f < 5; f++) {
+      filtered[f] = new byte[width * 3 + 1];
+      filtered[f][0] = (byte) f;
+    }
+    file.writeLong(SIGNATURE);
+    DataOutputStream header = new DataOutputStream(new ChunkStream(file, "IHDR"));
+    header.writeInt(width);
+    header.writeInt(height);
+    header.write(new byte[]{8, 2, 0, 0, 0});
+    header.close();
+    rows = new DeflaterOutputStream(new ChunkStream(file, "IDAT"), deflater, CHUNK_SIZE);
+  }
+
+  @Override
+  public void writeRow(int[] row) throws IOException {
+    byte[] swap = previous;
+    previous = current;
+    current = swap;
+    for (int j = 0, i = 0; j < width; j++, i += 3) {
+      current[i] = (byte) (row[j] >> 16);
+      current[i + 1] = (byte) (row[j] >> 8);
+      current[i + 2] = (byte) row[j];
+    }
+    rows.write(filter(current, previous));
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      rows.close();
+      new ChunkStream(file, "IEND").close();
+      file.close();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Helper function that filters a row with every filter and picks the one whose bytes,
+   * read as signed values, have the smallest sum of absolute values.
+   * @param line The row.
+   * @param above The row before it, all zero for the first row.
+   * @return The filter type followed by the filtered row.
+   */
+  private byte[] filter(byte[] line, byte[] above) {
+    long[] cost = new long[5];
+    for (int i = 0; i < line.length; i++) {
+      int x = line[i] & 0xff;
+      int a = i < 3 ? 0 : line[i - 3] & 0xff;
+      int b = above[i] & 0xff;
+      int c = i < 3 ? 0 : above[i - 3] & 0xff;
+      byte none = (byte) x;
+      byte sub = (byte) (x - a);
+      byte up = (byte) (x - b);
+      byte average = (byte) (x - (a + b >> 1));
+      byte paeth = (byte) (x - PngScanlineReader.paeth(a, b, c));
+      filtered[0][i + 1] = none;
+      filtered[1][i + 1] = sub;
+      filtered[2][i + 1] = up;
+      filtered[3][i + 1] = average;
+      filtered[4][i + 1] = paeth;
+      cost[0] += Math.abs(none);
+      cost[1] += Math.abs(sub);
+      cost[2] += Math.abs(up);
+      cost[3] += Math.abs(average);
+      cost[4] += Math.abs(paeth);
+    }
+    int best = 0;
+    for (int f = 1; f < 5; f++) {
+      if (cost[f] < cost[best]) {
+        best = f;
+      }
+    }
+    return filtered[best];
+  }
+
+  /**
+   * Buffers the data of one chunk type and writes it out as chunks with their lengths and
+   * CRCs, whenever CHUNK_SIZE bytes are ready and when closed.
+   */
+  private static final class ChunkStream extends OutputStream {
+    private final DataOutputStream file;
+    private final int type;
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private int size;
+
+    private ChunkStream(DataOutputStream file, String type) {
+      this.file = file;
+      this.type = PngScanlineReader.chunk(type);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (size == CHUNK_SIZE) {
+        flushChunk();
+      }
+      buffer[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (size == CHUNK_SIZE) {
+          flushChunk();
+        }
+        int n = Math.min(len, CHUNK_SIZE - size);
+        System.arraycopy(b, off, buffer, size, n);
+        size += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    /**
+     * Helper function that writes the buffered bytes as one chunk.
+     * @throws IOException if the file can't be written.
+     */
+    private void flushChunk() throws IOException {
+      CRC32 crc = new CRC32();
+      crc.update(type >>> 24);
+      crc.update(type >>> 16);
+      crc.update(type >>> 8);
+      crc.update(type);
+      crc.update(buffer, 0, size);
+      file.writeInt(size);
+      file.writeInt(type);
+      file.write(buffer, 0, size);
+      file.writeInt((int) crc.getValue());
+      size = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (size > 0 || type != PngScanlineReader.chunk("IDAT")) {
+        flushChunk();
+      }
+    }
+  }
+}
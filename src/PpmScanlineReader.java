@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class reads a plain (P3) or binary (P6) PPM file one row at a time.
+ * The file is read through a FileChannel into a direct byte buffer a block at a time.
+ * Plain numbers are parsed straight from its bytes, with no strings or regular expressions,
+ * and # comments and blank lines are skipped wherever they appear. Binary rows are copied
+ * out of the buffer in bulk, one or two bytes per value. Values are scaled from the file's
+ * maximum value, up to 65535, to 0..255.
+ */
+public final class PpmScanlineReader implements ScanlineReader {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private boolean binary;
+  private int width;
+  private int height;
+  private int maxValue;
+  private byte[] line;
+
+  /**
+   * Constructor for the PpmScanlineReader class for initialization.
+   * @param channel The file.
+   */
+  private PpmScanlineReader(FileChannel channel) {
+    this.channel = channel;
+    buffer.limit(0);
+  }
+
+  /**
+   * Opens a PPM file and reads its header.
+   * @param filename The file.
+   * @return The reader, or null if the file is not a P3 or P6 PPM.
+   * @throws IOException if the file can't be opened or its header is malformed.
+   */
+  public static PpmScanlineReader open(String filename) throws IOException {
+    PpmScanlineReader reader = new PpmScanlineReader(
+        FileChannel.open(Paths.get(filename), StandardOpenOption.READ));
+    try {
+      int kind = reader.read() == 'P' ? reader.read() : -1;
+      if (kind != '3' && kind != '6') {
+        reader.close();
+        return null;
+      }
+      reader.binary = kind == '6';
+      reader.width = reader.readInt();
+      reader.height = reader.readInt();
+      reader.maxValue = reader.readInt();
+      if (reader.width <= 0 || reader.height <= 0 || reader.maxValue <= 0
+          || reader.maxValue > 65535
+          || (long) reader.width * (reader.maxValue > 255 ? 6 : 3) > Integer.MAX_VALUE) {
+        throw new IOException("Malformed PPM header in " + filename);
+      }
+      if (reader.binary) {
+        reader.line = new byte[reader.width * (reader.maxValue > 255 ? 6 : 3)];
+      }
+      return reader;
+    } catch (IOException e) {
+      reader.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public void readRow(int[] row) throws IOException {
+    if (binary) {
+      readBinaryRow(row);
+      return;
+    }
+    for (int j = 0; j < width; j++) {
+      int r = readValue();
+      int g = readValue();
+      int b = readValue();
+      row[j] = r << 16 | g << 8 | b;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Helper function that reads a row of a binary file: three bytes per pixel, or six
+   * big-endian bytes when the maximum value is above 255.
+   * @param row Receives the packed pixels.
+   * @throws IOException if the file ends early or a value is above the maximum.
+   */
+  private void readBinaryRow(int[] row) throws IOException {
+    for (int done = 0; done < line.length; ) {
+      if (!buffer.hasRemaining() && !fill()) {
+        throw new IOException("PPM file ends early");
+      }
+      int n = Math.min(buffer.remaining(), line.length - done);
+      buffer.get(line, done, n);
+      done += n;
+    }
+    if (maxValue == 255) {
+      for (int j = 0, i = 0; j < width; j++, i += 3) {
+        row[j] = (line[i] & 0xff) << 16 | (line[i + 1] & 0xff) << 8 | line[i + 2] & 0xff;
+      }
+      return;
+    }
+    int bytes = maxValue > 255 ? 2 : 1;
+    for (int j = 0, i = 0; j < width; j++) {
+      int rgb = 0;
+      for (int c = 0; c < 3; c++, i += bytes) {
+        int v = bytes == 2 ? (line[i] & 0xff) << 8 | line[i + 1] & 0xff : line[i] & 0xff;
+        rgb = rgb << 8 | scale(v);
+      }
+      row[j] = rgb;
+    }
+  }
+
+  /**
+   * Helper function that reads one channel value of a plain file and scales it to 0..255.
+   * @return The value.
+   * @throws IOException if the file ends or the value is above the maximum.
+   */
+  private int readValue() throws IOException {
+    return scale(readInt());
+  }
+
+  /**
+   * Helper function that scales a value from 0..maxValue to 0..255.
+   * @param v The value.
+   * @return The scaled value.
+   * @throws IOException if the value is above the maximum.
+   */
+  private int scale(int v) throws IOException {
+    if (v > maxValue) {
+      throw new IOException("PPM value " + v + " is above the maximum " + maxValue);
+    }
+    return maxValue == 255 ? v : (v * 255 + maxValue / 2) / maxValue;
+  }
+
+  /**
+   * Helper function that reads the next non-negative number, skipping whitespace and
+   * comments that run from # to the end of the line. The one character after the number
+   * is read too, which in a binary file is the whitespace before the pixel data.
+   * @return The number.
+   * @throws IOException if the file ends or something other than a number comes next.
+   */
+  private int readInt() throws IOException {
+    int c = read();
+    while (c == '#' || c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f') {
+      if (c == '#') {
+        while (c != '\n' && c != '\r' && c != -1) {
+          c = read();
+        }
+      } else {
+        c = read();
+      }
+    }
+    if (c < '0' || c > '9') {
+      throw new IOException(c == -1 ? "PPM file ends early" : "Malformed PPM number");
+    }
+    int value = 0;
+    while (c >= '0' && c <= '9') {
+      value = value * 10 + c - '0';
+      if (value > 65535) {
+        throw new IOException("PPM number too large");
+      }
+      c = read();
+    }
+    return value;
+  }
+
+  /**
+   * Helper function that reads the next byte of the file, refilling the buffer when it is
+   * used up.
+   * @return The byte, or -1 at the end of the file.
+   * @throws IOException if the file can't be read.
+   */
+  private int read() throws IOException {
+    if (!buffer.hasRemaining() && !fill()) {
+      return -1;
+    }
+    return buffer.get() & 0xff;
+  }
+
+  /**
+   * Helper function that reads the next block of the file into the empty buffer.
+   * @return False at the end of the file.
+   * @throws IOException if the file can't be read.
+   */
+  private boolean fill() throws IOException {
+    buffer.clear();
+    int n = channel.read(buffer);
+    buffer.flip();
+    return n > 0;
+  }
+}
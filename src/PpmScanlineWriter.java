@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class writes a PPM file one row at a time. Plain (P3) files have the same layout as
+ * saving a PPM image: a header of three lines, then one pixel per line. Binary (P6) files
+ * have the same header followed by three bytes per pixel.
+ * Each row is encoded into a reusable byte array, plain values by copying their digits from
+ * a table of the text of 0..255, and gathered in a direct byte buffer that is written
+ * through a FileChannel a block at a time.
+ */
+public final class PpmScanlineWriter implements ScanlineWriter {
+
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final byte[] NEWLINE =
+      System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] DIGITS = new byte[256 * 4];
+
+  static {
+    for (int v = 0; v < 256; v++) {
+      byte[] text = Integer.toString(v).getBytes(StandardCharsets.US_ASCII);
+      DIGITS[4 * v] = (byte) text.length;
+      System.arraycopy(text, 0, DIGITS, 4 * v + 1, text.length);
+    }
+  }
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final byte[] line;
+  private final int width;
+  private final boolean binary;
+
+  /**
+   * Constructor for the PpmScanlineWriter class, which creates a plain file and writes its
+   * header.
+   * @param filename The file.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @throws IOException if the file can't be created.
+   */
+  public PpmScanlineWriter(String filename, int width, int height) throws IOException {
+    this(filename, width, height, false);
+  }
+
+  /**
+   * Constructor for the PpmScanlineWriter class, which creates the file and writes its
+   * header.
+   * @param filename The file.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @param binary True for a binary (P6) file, false for a plain (P3) one.
+   * @throws IOException if the file can't be created.
+   */
+  public PpmScanlineWriter(String filename, int width, int height, boolean binary)
+      throws IOException {
+    this.width = width;
+    this.binary = binary;
+    this.line = new byte[binary ? width * 3 : width * (11 + NEWLINE.length) + 2];
+    this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    String newline = System.lineSeparator();
+    String header = (binary ? "P6" : "P3") + newline + width + " " + height + newline + 255
+        + newline;
+    buffer.put(header.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Override
+  public void writeRow(int[] row) throws IOException {
+    int n = 0;
+    if (binary) {
+      for (int j = 0; j < width; j++, n += 3) {
+        int rgb = row[j];
+        line[n] = (byte) (rgb >> 16);
+        line[n + 1] = (byte) (rgb >> 8);
+        line[n + 2] = (byte) rgb;
+      }
+    } else {
+      for (int j = 0; j < width; j++) {
+        int rgb = row[j];
+        n = digits(rgb >> 16 & 0xff, n);
+        line[n++] = ' ';
+        n = digits(rgb >> 8 & 0xff, n);
+        line[n++] = ' ';
+        n = digits(rgb & 0xff, n);
+        for (byte b : NEWLINE) {
+          line[n++] = b;
+        }
+      }
+    }
+    for (int done = 0; done < n; ) {
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      int count = Math.min(buffer.remaining(), n - done);
+      buffer.put(line, done, count);
+      done += count;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      drain();
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Helper function that copies the text of a value into the row from the digit table.
+   * All three bytes of the table entry are copied, whatever the length of the text, and
+   * the ones past its end are overwritten by what follows.
+   * @param v The value, 0..255.
+   * @param n Where in the row the text goes.
+   * @return The position after the text.
+   */
+  private int digits(int v, int n) {
+    int at = 4 * v;
+    line[n] = DIGITS[at + 1];
+    line[n + 1] = DIGITS[at + 2];
+    line[n + 2] = DIGITS[at + 3];
+    return n + DIGITS[at];
+  }
+
+  /**
+   * Helper function that writes out everything in the buffer and empties it.
+   * @throws IOException if the file can't be written.
+   */
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,89 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class decodes images on a few background threads before a script reaches the loads
+ * that need them. Each decoded image is kept under its file and image name until the load
+ * takes it, or until the prefetcher is cleared. The images are not added to the model.
+ */
+public final class Prefetcher {
+
+  private final ExecutorService executor;
+  private final Map<String, Future<Photo>> started = new HashMap<>();
+
+  /**
+   * Constructor for the Prefetcher class for initialization.
+   * @param threads The number of background threads.
+   */
+  public Prefetcher(int threads) {
+    this.executor = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "prefetch");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Checks if a load has been started and not taken yet.
+   * @param filename The file.
+   * @param image_name The name the image will be loaded as.
+   * @return True if it has.
+   */
+  public boolean has(String filename, String image_name) {
+    return started.containsKey(filename + " " + image_name);
+  }
+
+  /**
+   * Starts a load in the background.
+   * @param filename The file.
+   * @param image_name The name the image will be loaded as.
+   * @param load Decodes the file and returns the image, or null if it can't be read.
+   */
+  public void start(String filename, String image_name, Callable<Photo> load) {
+    started.put(filename + " " + image_name, executor.submit(load));
+  }
+
+  /**
+   * Takes the image of a started load, waiting for it to be decoded if needed.
+   * @param filename The file.
+   * @param image_name The name the image will be loaded as.
+   * @return The image, or null if no load was started or it failed.
+   */
+  public Photo take(String filename, String image_name) {
+    Future<Photo> load = started.remove(filename + " " + image_name);
+    if (load == null) {
+      return null;
+    }
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return load.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      return null;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Stops and drops every load that was not taken.
+   */
+  public void clear() {
+    for (Future<Photo> load : started.values()) {
+      load.cancel(true);
+    }
+    started.clear();
+  }
+}
@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/**
+ * This class scales images to any size by area averaging: each new pixel is the mean of the
+ * part of the image it covers, with source pixels on its edges counted by how much of them
+ * is covered. Rows are averaged first and columns second, each source row once per band.
+ * Weights are integers, so results are the same whatever the bands or threads.
+ */
+public final class Resampler {
+
+  private Resampler() {
+  }
+
+  /**
+   * Computes an image scaled to a new size.
+   * @param image The source image.
+   * @param width The new width.
+   * @param height The new height.
+   * @return The PixelSource of the scaled image.
+   */
+  public static PixelSource resize(Photo image, int width, int height) {
+    Axis across = new Axis(image.getWidth(), width);
+    Axis down = new Axis(image.getHeight(), height);
+    double scale = 1.0 / ((double) image.getWidth() * image.getHeight());
+    return (startX, startY, w, h, rgbArray, offset, scansize) -> {
+      int from = across.first[startX];
+      int to = across.first[startX + w - 1] + across.count[startX + w - 1];
+      int[] row = new int[to - from];
+      int[][] ring = new int[down.span][3 * w];
+      int done = -1;
+      long[] sums = new long[3 * w];
+      for (int i = 0; i < h; i++) {
+        int y = startY + i;
+        Arrays.fill(sums, 0);
+        for (int t = 0; t < down.count[y]; t++) {
+          int source = down.first[y] + t;
+          int[] line = ring[source % down.span];
+          if (source > done) {
+            image.getRGB(from, source, to - from, 1, row, 0, to - from);
+            across.average(row, from, startX, w, line);
+            done = source;
+          }
+          long weight = down.weights[down.start[y] + t];
+          for (int j = 0; j < 3 * w; j++) {
+            sums[j] += weight * line[j];
+          }
+        }
+        int base = offset + i * scansize;
+        for (int j = 0; j < w; j++) {
+          int r = (int) (sums[3 * j] * scale + 0.5);
+          int g = (int) (sums[3 * j + 1] * scale + 0.5);
+          int b = (int) (sums[3 * j + 2] * scale + 0.5);
+          rgbArray[base + j] = r << 16 | g << 8 | b;
+        }
+      }
+    };
+  }
+
+  /**
+   * The source pixels each new pixel covers along one axis, and how much of each.
+   * Measured in units of 1/target of a source pixel, new pixel x covers [x * source,
+   * (x + 1) * source) and source pixel i covers [i * target, (i + 1) * target), so every
+   * weight is a whole number and the weights of each new pixel add up to source.
+   */
+  private static final class Axis {
+    private final int[] first;
+    private final int[] count;
+    private final int[] start;
+    private final int[] weights;
+    private final int span;
+
+    private Axis(int source, int target) {
+      first = new int[target];
+      count = new int[target];
+      start = new int[target];
+      weights = new int[source + target];
+      int next = 0;
+      int widest = 1;
+      for (int x = 0; x < target; x++) {
+        long low = (long) x * source;
+        long high = low + source;
+        first[x] = (int) (low / target);
+        count[x] = (int) ((high - 1) / target) - first[x] + 1;
+        start[x] = next;
+        for (int i = first[x]; i < first[x] + count[x]; i++) {
+          weights[next++] = (int) (Math.min(high, (long) (i + 1) * target)
+              - Math.max(low, (long) i * target));
+        }
+        widest = Math.max(widest, count[x]);
+      }
+      span = widest;
+    }
+
+    /**
+     * Helper function that computes the weighted channel sums of a run of new pixels
+     * from one source row.
+     * @param row The packed source pixels, starting at column from.
+     * @param from The first source column in row.
+     * @param startX The first new pixel.
+     * @param w The number of new pixels.
+     * @param line Receives the red, green and blue sums of each new pixel in turn.
+     */
+    private void average(int[] row, int from, int startX, int w, int[] line) {
+      for (int j = 0; j < w; j++) {
+        int x = startX + j;
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        for (int k = 0, i = first[x] - from; k < count[x]; k++, i++) {
+          int weight = weights[start[x] + k];
+          int rgb = row[i];
+          r += weight * (rgb >> 16 & 0xff);
+          g += weight * (rgb >> 8 & 0xff);
+          b += weight * (rgb & 0xff);
+        }
+        line[3 * j] = r;
+        line[3 * j + 1] = g;
+        line[3 * j + 2] = b;
+      }
+    }
+  }
+}
@@ -0,0 +1,163 @@
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs saves on a few background threads while the commands after them go on.
+ * At most a fixed number of saves wait for a thread; when that many are waiting, the next
+ * save runs on the thread that queued it, so pending saves can't pile up without bound.
+ * Saves are reported in the order they were queued, when the queue is finished. A save
+ * reads its image while it runs, so the image must not be written until waitFor returns,
+ * and a file must not be read or written again until waitForFile returns. Once a save has
+ * run only its outcome is kept for the report, so the queue does not keep images alive.
+ */
+public final class SaveQueue {
+
+  private final ThreadPoolExecutor executor;
+  private final List<Pending> pending = new ArrayList<>();
+
+  /**
+   * Constructor for the SaveQueue class for initialization.
+   * @param threads The number of background threads.
+   * @param capacity The number of saves that may wait for a thread.
+   */
+  public SaveQueue(int threads, int capacity) {
+    this.executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(capacity), task -> {
+          Thread thread = new Thread(task, "save");
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Queues a save, after any earlier save to the same file.
+   * @param filename The file.
+   * @param image_name The name of the image, for the report.
+   * @param image The image, which the save reads.
+   * @param save Writes the file and returns true, or false if it failed.
+   */
+  public void submit(String filename, String image_name, Photo image,
+      Callable<Boolean> save) {
+    waitForFile(filename);
+    pending.add(new Pending(filename, image_name, image, executor.submit(save)));
+  }
+
+  /**
+   * Waits for every save still running or queued that reads an image, directly or through
+   * an image that reads it lazily, such as a view of it.
+   * @param image The image.
+   */
+  public void waitFor(Photo image) {
+    for (Pending save : pending) {
+      Photo saving = save.result.isDone() ? null : save.image.get();
+      if (saving != null && (saving == image || image instanceof AbstractPhoto
+          && ((AbstractPhoto) image).isReadBy(saving))) {
+        save.result();
+      }
+    }
+  }
+
+  /**
+   * Waits for every queued save to a file.
+   * @param filename The file.
+   */
+  public void waitForFile(String filename) {
+    String path = pathOf(filename);
+    for (Pending save : pending) {
+      if (save.path.equals(path)) {
+        save.result();
+      }
+    }
+  }
+
+  /**
+   * Checks if a save to a file has been queued since the queue was last finished.
+   * @param filename The file.
+   * @return True if one has.
+   */
+  public boolean writes(String filename) {
+    String path = pathOf(filename);
+    for (Pending save : pending) {
+      if (save.path.equals(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Waits for every queued save and reports each one, in the order they were queued.
+   * @param view Receives a line for each save.
+   */
+  public void finish(View view) {
+    for (Pending save : pending) {
+      if (!save.result()) {
+        view.printFeedback("Error saving image " + save.filename);
+      } else {
+        view.printFeedback("Saved " + save.filename + " using " + save.imageName);
+      }
+    }
+    pending.clear();
+  }
+
+  /**
+   * Helper function that gives the same name to every spelling of a file's path.
+   * @param filename The file.
+   * @return Its absolute, normalized path.
+   */
+  static String pathOf(String filename) {
+    return new File(filename).getAbsoluteFile().toPath().normalize().toString();
+  }
+
+  /**
+   * A queued save and its result.
+   * The image is only weakly held here; the save itself holds it until it has run.
+   */
+  private static final class Pending {
+    private final String filename;
+    private final String path;
+    private final String imageName;
+    private final WeakReference<Photo> image;
+    private final Future<Boolean> result;
+
+    private Pending(String filename, String imageName, Photo image, Future<Boolean> result) {
+      this.filename = filename;
+      this.path = pathOf(filename);
+      this.imageName = imageName;
+      this.image = new WeakReference<>(image);
+      this.result = result;
+    }
+
+    /**
+     * Helper function that waits for the save to end.
+     * @return True if the file was saved, false if the save failed.
+     */
+    private boolean result() {
+      boolean interrupted = false;
+      try {
+        while (true) {
+          try {
+            return result.get();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      } catch (ExecutionException e) {
+        return false;
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+}
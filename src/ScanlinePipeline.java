@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs a chain of image operations over an image one row at a time, from a
+ * ScanlineReader to a ScanlineWriter, so the whole image is never in memory.
+ * Per-pixel operations and horizontal flips change each row as it passes. A kernel keeps
+ * a ring of as many rows as it is tall, 3 for blur and 5 for sharpen, and emits each row
+ * once the rows below it have arrived, computed by the same ConvolutionEngine as the
+ * in-memory operations, so both give the same image. Memory use is a few rows per step.
+ */
+public final class ScanlinePipeline {
+
+  private final int width;
+  private final int height;
+  private final List<Stage> stages = new ArrayList<>();
+
+  /**
+   * Constructor for the ScanlinePipeline class for initialization.
+   * @param width The width of the images.
+   * @param height The height of the images.
+   */
+  public ScanlinePipeline(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Adds a per-pixel operation to the end of the pipeline.
+   * @param op The operation.
+   * @return This pipeline.
+   */
+  public ScanlinePipeline then(PixelOp op) {
+    stages.add(new Stage() {
+      @Override
+      void push(int[] row) throws IOException {
+        op.apply(row, 0, width);
+        next.push(row);
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Adds a convolution to the end of the pipeline.
+   * @param kernel The kernel.
+   * @return This pipeline.
+   */
+  public ScanlinePipeline then(Kernel kernel) {
+    stages.add(new Convolution(kernel));
+    return this;
+  }
+
+  /**
+   * Adds a horizontal flip to the end of the pipeline.
+   * @return This pipeline.
+   */
+  public ScanlinePipeline horizontalFlip() {
+    stages.add(new Stage() {
+      @Override
+      void push(int[] row) throws IOException {
+        for (int i = 0, j = width - 1; i < j; i++, j--) {
+          int swap = row[i];
+          row[i] = row[j];
+          row[j] = swap;
+        }
+        next.push(row);
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Reads every row, passes it through the pipeline and writes the result.
+   * A pipeline can be run once.
+   * @param reader The source, of the pipeline's size.
+   * @param writer The destination.
+   * @throws IOException if reading or writing fails.
+   */
+  public void run(ScanlineReader reader, ScanlineWriter writer) throws IOException {
+    Stage last = new Stage() {
+      @Override
+      void push(int[] row) throws IOException {
+        writer.writeRow(row);
+      }
+
+      @Override
+      void finish() {
+      }
+    };
+    for (int i = stages.size() - 1; i >= 0; i--) {
+      stages.get(i).next = last;
+      last = stages.get(i);
+    }
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++) {
+      reader.readRow(row);
+      last.push(row);
+    }
+    last.finish();
+  }
+
+  /**
+   * One step of the pipeline, which receives the rows of its input in order and passes
+   * the rows of its result on to the next step in order. A step may change the rows it
+   * receives; the array is filled again for the next row.
+   */
+  private abstract static class Stage {
+    Stage next;
+
+    abstract void push(int[] row) throws IOException;
+
+    void finish() throws IOException {
+      next.finish();
+    }
+  }
+
+  /**
+   * A convolution over a ring of the last rows received.
+   */
+  private final class Convolution extends Stage {
+    private final int radius;
+    private final Window window;
+    private final PixelSource source;
+    private final int[] out = new int[width];
+    private int received;
+    private int emitted;
+
+    private Convolution(Kernel kernel) {
+      this.radius = kernel.getHeight() / 2;
+      this.window = new Window(width, height, kernel.getHeight());
+      this.source = ConvolutionEngine.convolve(window, kernel);
+    }
+
+    @Override
+    void push(int[] row) throws IOException {
+      window.add(received++, row);
+      if (received > radius) {
+        emit();
+      }
+    }
+
+    @Override
+    void finish() throws IOException {
+      while (emitted < height) {
+        emit();
+      }
+      next.finish();
+    }
+
+    /**
+     * Helper function that computes the next row of the result, whose neighbours up to the
+     * kernel radius below it are all in the ring.
+     * @throws IOException if a later step fails.
+     */
+    private void emit() throws IOException {
+      source.fill(0, emitted++, width, 1, out, 0, width);
+      next.push(out);
+    }
+  }
+
+  /**
+   * The rows of an image of the full size, of which only the last rows added are held,
+   * each in the slot of its row number modulo the ring size. Reading any other row is an
+   * error.
+   */
+  private static final class Window implements PixelReader {
+    private final int width;
+    private final int height;
+    private final int[] ring;
+    private final int rows;
+
+    private Window(int width, int height, int rows) {
+      this.width = width;
+      this.height = height;
+      this.rows = rows;
+      this.ring = new int[width * rows];
+    }
+
+    /**
+     * Helper function that stores the next row, replacing the oldest one.
+     * @param y The row number.
+     * @param row The pixels.
+     */
+    private void add(int y, int[] row) {
+      System.arraycopy(row, 0, ring, y % rows * width, width);
+    }
+
+    @Override
+    public int getWidth() {
+      return width;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public void getRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+        int scansize) {
+      for (int i = 0; i < h; i++) {
+        System.arraycopy(ring, (startY + i) % rows * width + startX, rgbArray,
+            offset + i * scansize, w);
+      }
+    }
+  }
+}
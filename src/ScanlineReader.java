@@ -0,0 +1,43 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The ScanlineReader interface decodes an image file one row at a time, top to bottom,
+ * so that a file can be processed while only a few of its rows are in memory.
+ */
+public interface ScanlineReader extends Closeable {
+  /**
+   * Gets the width of the image.
+   * @return the number of pixels in a row.
+   */
+  public int getWidth();
+
+  /**
+   * Gets the height of the image.
+   * @return the number of rows.
+   */
+  public int getHeight();
+
+  /**
+   * Decodes the next row of the image.
+   * @param row receives the packed 0xRRGGBB pixels of the row, at least width of them.
+   * @throws IOException if the file can't be read or is malformed.
+   */
+  public void readRow(int[] row) throws IOException;
+
+  /**
+   * Opens an image file for reading row by row.
+   * @param filename the file, a P3 .ppm or a non-interlaced 8-bit rgb or palette .png.
+   * @return the reader, or null if the file is of a kind that can't be read row by row.
+   * @throws IOException if the file can't be opened or its header is malformed.
+   */
+  public static ScanlineReader open(String filename) throws IOException {
+    if (filename.endsWith(".ppm")) {
+      return PpmScanlineReader.open(filename);
+    }
+    if (filename.endsWith(".png")) {
+      return PngScanlineReader.open(filename);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,54 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The ScanlineWriter interface encodes an image file one row at a time, top to bottom,
+ * so that a file can be written while only a few of its rows are in memory.
+ */
+public interface ScanlineWriter extends Closeable {
+  /**
+   * Encodes the next row of the image.
+   * @param row the packed 0xRRGGBB pixels of the row, at least width of them.
+   * @throws IOException if the file can't be written.
+   */
+  public void writeRow(int[] row) throws IOException;
+
+  /**
+   * Creates an image file to be written row by row, and any missing parent directories.
+   * PPM files are written as plain (P3) files.
+   * @param filename the file, a .ppm or a .png.
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @return the writer, or null if files of that kind can't be written row by row.
+   * @throws IOException if the file can't be created.
+   */
+  public static ScanlineWriter open(String filename, int width, int height)
+      throws IOException {
+    return open(filename, width, height, false);
+  }
+
+  /**
+   * Creates an image file to be written row by row, and any missing parent directories.
+   * @param filename the file, a .ppm or a .png.
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param binaryPpm true to write a .ppm as a binary (P6) file rather than a plain one.
+   * @return the writer, or null if files of that kind can't be written row by row.
+   * @throws IOException if the file can't be created.
+   */
+  public static ScanlineWriter open(String filename, int width, int height, boolean binaryPpm)
+      throws IOException {
+    if (!filename.endsWith(".ppm") && !filename.endsWith(".png")) {
+      return null;
+    }
+    File parentDir = new File(filename).getParentFile();
+    if (parentDir != null && !parentDir.exists()) {
+      parentDir.mkdirs();
+    }
+    if (filename.endsWith(".ppm")) {
+      return new PpmScanlineWriter(filename, width, height, binaryPpm);
+    }
+    return new PngScanlineWriter(filename, width, height);
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * The StorageMode enum lists the ways the program can store the pixels of an image.
+ * The ImageModel uses the selected mode whenever it creates a new image.
+ */
+public enum StorageMode {
+  /**
+   * One int per pixel packed as 0xRRGGBB, see ImagePhoto.
+   */
+  PACKED {
+    @Override
+    public Photo create(String name, int width, int height) {
+      return new ImagePhoto(name, width, height);
+    }
+  },
+
+  /**
+   * One byte per channel in three separate planes, see PlanarPhoto.
+   */
+  PLANAR {
+    @Override
+    public Photo create(String name, int width, int height) {
+      return new PlanarPhoto(name, width, height);
+    }
+  },
+
+  /**
+   * 3 bytes per pixel in a memory-mapped temporary file outside the heap, see MappedPhoto.
+   */
+  MAPPED {
+    @Override
+    public Photo create(String name, int width, int height) {
+      return new MappedPhoto(name, width, height);
+    }
+  },
+
+  /**
+   * 256x256 tiles created on first use, with lazily computed results, see TiledPhoto.
+   */
+  TILED {
+    @Override
+    public Photo create(String name, int width, int height) {
+      return new TiledPhoto(name, width, height);
+    }
+  };
+
+  /**
+   * Creates a new black image using this storage.
+   * @param name the name of the new image.
+   * @param width the width of the new image.
+   * @param height the height of the new image.
+   * @return the new Photo object.
+   */
+  public abstract Photo create(String name, int width, int height);
+}
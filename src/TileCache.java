@@ -0,0 +1,76 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is a bounded least-recently-used cache of image tiles.
+ * Tiles that were computed from a PixelSource live here and are dropped when the cache is
+ * full, since they can always be computed again. Tiles are keyed by their image and index.
+ */
+public class TileCache {
+
+  private final Map<Long, int[]> tiles;
+  private int capacity;
+
+  /**
+   * Constructor for the TileCache class for initialization.
+   * @param capacity The maximum number of tiles kept at once.
+   */
+  public TileCache(int capacity) {
+    this.capacity = capacity;
+    this.tiles = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+        return size() > TileCache.this.capacity;
+      }
+    };
+  }
+
+  /**
+   * Changes how many tiles are kept at once, dropping the least recently used tiles if
+   * there are more.
+   * @param capacity The maximum number of tiles kept at once.
+   */
+  public synchronized void setCapacity(int capacity) {
+    this.capacity = capacity;
+    Iterator<Long> eldest = tiles.keySet().iterator();
+    while (tiles.size() > capacity) {
+      eldest.next();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Gets how many tiles are kept at once.
+   * @return The capacity.
+   */
+  public synchronized int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Looks up a tile and marks it as recently used.
+   * @param key The key of the tile.
+   * @return The tile, or null if it is not cached.
+   */
+  public synchronized int[] get(long key) {
+    return tiles.get(key);
+  }
+
+  /**
+   * Adds a tile, evicting the least recently used tile if the cache is full.
+   * @param key The key of the tile.
+   * @param tile The tile pixels.
+   */
+  public synchronized void put(long key, int[] tile) {
+    tiles.put(key, tile);
+  }
+
+  /**
+   * Drops a tile from the cache.
+   * @param key The key of the tile.
+   */
+  public synchronized void remove(long key) {
+    tiles.remove(key);
+  }
+}
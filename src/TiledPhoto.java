@@ -0,0 +1,172 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is an implementation of the Photo interface made of square tiles.
+ * Tiles are only created when first touched. A tiled image can have a PixelSource,
+ * in which case each tile is computed from it when first read and kept in a shared,
+ * bounded TileCache; evicted tiles are simply computed again. Tiles that are written
+ * are owned by the image and never evicted.
+ * Image operations on a tiled image return another lazy tiled image, so saving or
+ * previewing part of a result only computes the tiles that are needed.
+ */
+public class TiledPhoto extends AbstractPhoto {
+
+  public static final int TILE_SIZE = 256;
+  private static final TileCache CACHE = new TileCache(defaultCacheTiles());
+  private static final AtomicInteger IDS = new AtomicInteger();
+  private static final int[] BLANK = new int[TILE_SIZE * TILE_SIZE];
+
+  private final long id;
+  private final PixelSource source;
+  private final int tilesAcross;
+  private final Map<Integer, int[]> written = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor for a black TiledPhoto.
+   * @param name Takes in the name for the TiledPhoto.
+   * @param width Takes in the width for the TiledPhoto.
+   * @param height Takes in the height for the TiledPhoto.
+   */
+  public TiledPhoto(String name, int width, int height) {
+    this(name, width, height, null);
+  }
+
+  /**
+   * Constructor for a TiledPhoto whose pixels are computed on first read.
+   * @param name Takes in the name for the TiledPhoto.
+   * @param width Takes in the width for the TiledPhoto.
+   * @param height Takes in the height for the TiledPhoto.
+   * @param source Computes the pixels of each tile, or null for a black image.
+   */
+  public TiledPhoto(String name, int width, int height, PixelSource source) {
+    super(name, width, height);
+    this.id = IDS.incrementAndGet();
+    this.source = source;
+    this.tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+  }
+
+  /**
+   * Changes how many computed tiles, shared by all tiled images, are kept at once.
+   * @param tiles The number of tiles, each TILE_SIZE * TILE_SIZE pixels.
+   * @throws IllegalArgumentException if tiles is less than 1.
+   */
+  public static void setCacheTiles(int tiles) {
+    if (tiles < 1) {
+      throw new IllegalArgumentException("The tile cache must hold at least 1 tile");
+    }
+    CACHE.setCapacity(tiles);
+  }
+
+  /**
+   * Gets how many computed tiles are kept at once.
+   * @return The number of tiles.
+   */
+  public static int getCacheTiles() {
+    return CACHE.getCapacity();
+  }
+
+  /**
+   * Helper function that sizes the tile cache to a quarter of the maximum heap.
+   * @return The number of tiles, at least 16.
+   */
+  private static int defaultCacheTiles() {
+    long tileBytes = 4L * TILE_SIZE * TILE_SIZE;
+    return (int) Math.max(16, Math.min(Integer.MAX_VALUE,
+        Runtime.getRuntime().maxMemory() / 4 / tileBytes));
+  }
+
+  /**
+   * Helper function to get a tile for reading, computing it if needed.
+   * Tiles are always TILE_SIZE wide, edge tiles just leave the outside unused.
+   * @param tx The column of the tile.
+   * @param ty The row of the tile.
+   * @return The tile pixels, which must not be modified.
+   */
+  private int[] tile(int tx, int ty) {
+    int index = ty * tilesAcross + tx;
+    int[] tile = written.get(index);
+    if (tile != null) {
+      return tile;
+    }
+    if (source == null) {
+      return BLANK;
+    }
+    long key = id << 32 | index;
+    tile = CACHE.get(key);
+    if (tile == null) {
+      int x = tx * TILE_SIZE;
+      int y = ty * TILE_SIZE;
+      tile = new int[TILE_SIZE * TILE_SIZE];
+      source.fill(x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y), tile,
+          0, TILE_SIZE);
+      CACHE.put(key, tile);
+    }
+    return tile;
+  }
+
+  /**
+   * Helper function to get a tile for writing, taking it over from the cache if needed.
+   * The tile is taken over atomically, so threads writing different rows of one tile all
+   * write to the same copy.
+   * @param tx The column of the tile.
+   * @param ty The row of the tile.
+   * @return The tile pixels owned by this image.
+   */
+  private int[] writableTile(int tx, int ty) {
+    return written.computeIfAbsent(ty * tilesAcross + tx, index -> {
+      int[] tile = tile(tx, ty).clone();
+      CACHE.remove(id << 32 | index);
+      return tile;
+    });
+  }
+
+  @Override
+  public int getRGB(int x, int y) {
+    return tile(x / TILE_SIZE, y / TILE_SIZE)[(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE];
+  }
+
+  @Override
+  public void setRGB(int x, int y, int rgb) {
+    writableTile(x / TILE_SIZE, y / TILE_SIZE)[(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE] = rgb;
+    changed();
+  }
+
+  @Override
+  public void getRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    for (int y = startY; y < startY + h; ) {
+      int rows = Math.min(startY + h, (y / TILE_SIZE + 1) * TILE_SIZE) - y;
+      for (int x = startX; x < startX + w; ) {
+        int cols = Math.min(startX + w, (x / TILE_SIZE + 1) * TILE_SIZE) - x;
+        int[] tile = tile(x / TILE_SIZE, y / TILE_SIZE);
+        for (int i = 0; i < rows; i++) {
+          System.arraycopy(tile, ((y + i) % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE, rgbArray,
+              offset + (y + i - startY) * scansize + x - startX, cols);
+        }
+        x += cols;
+      }
+      y += rows;
+    }
+  }
+
+  @Override
+  public void setRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    for (int y = startY; y < startY + h; ) {
+      int rows = Math.min(startY + h, (y / TILE_SIZE + 1) * TILE_SIZE) - y;
+      for (int x = startX; x < startX + w; ) {
+        int cols = Math.min(startX + w, (x / TILE_SIZE + 1) * TILE_SIZE) - x;
+        int[] tile = writableTile(x / TILE_SIZE, y / TILE_SIZE);
+        for (int i = 0; i < rows; i++) {
+          System.arraycopy(rgbArray, offset + (y + i - startY) * scansize + x - startX, tile,
+              ((y + i) % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE, cols);
+        }
+        x += cols;
+      }
+      y += rows;
+    }
+    changed();
+  }
+}
@@ -0,0 +1,206 @@
+/**
+ * This class is an implementation of the Photo interface that remaps another image.
+ * A view does not copy any pixels, it maps each of its coordinates to a pixel of its parent:
+ * parent x = a * x + b * y + tx and parent y = c * x + d * y + ty.
+ * Flips, transposes and crops are all such maps, and a view of a view is folded into a
+ * single view of the original parent, so chains of them cost nothing.
+ * The first write to a view copies it into a TiledPhoto, one touched tile at a time.
+ * Threads writing to one view at the same time all write to the same copy.
+ */
+public class ViewPhoto extends AbstractPhoto {
+
+  private final Photo parent;
+  private final int a;
+  private final int b;
+  private final int c;
+  private final int d;
+  private final int tx;
+  private final int ty;
+  private volatile TiledPhoto copy;
+
+  /**
+   * Constructor for the ViewPhoto class for initialization.
+   * @param name Takes in the name for the ViewPhoto.
+   * @param width Takes in the width for the ViewPhoto.
+   * @param height Takes in the height for the ViewPhoto.
+   * @param parent The image that is viewed.
+   * @param a How much parent x moves per step in x.
+   * @param b How much parent x moves per step in y.
+   * @param c How much parent y moves per step in x.
+   * @param d How much parent y moves per step in y.
+   * @param tx The parent x of the pixel (0, 0).
+   * @param ty The parent y of the pixel (0, 0).
+   */
+  private ViewPhoto(String name, int width, int height, Photo parent, int a, int b, int c,
+      int d, int tx, int ty) {
+    super(name, width, height);
+    this.parent = parent;
+    if (parent instanceof AbstractPhoto) {
+      ((AbstractPhoto) parent).addReader(this);
+    }
+    this.a = a;
+    this.b = b;
+    this.c = c;
+    this.d = d;
+    this.tx = tx;
+    this.ty = ty;
+  }
+
+  /**
+   * Helper function that creates a view, folding it into the given image if that is a view.
+   * @param name The name of the view.
+   * @param image The image that is viewed.
+   * @param width The width of the view.
+   * @param height The height of the view.
+   * @param ma How much image x moves per step in x.
+   * @param mb How much image x moves per step in y.
+   * @param mc How much image y moves per step in x.
+   * @param md How much image y moves per step in y.
+   * @param mx The image x of the pixel (0, 0).
+   * @param my The image y of the pixel (0, 0).
+   * @return The new view.
+   */
+  private static ViewPhoto of(String name, Photo image, int width, int height, int ma, int mb,
+      int mc, int md, int mx, int my) {
+    if (image instanceof ViewPhoto && ((ViewPhoto) image).copy == null) {
+      ViewPhoto view = (ViewPhoto) image;
+      return new ViewPhoto(name, width, height, view.parent,
+          view.a * ma + view.b * mc, view.a * mb + view.b * md,
+          view.c * ma + view.d * mc, view.c * mb + view.d * md,
+          view.a * mx + view.b * my + view.tx, view.c * mx + view.d * my + view.ty);
+    }
+    return new ViewPhoto(name, width, height, image, ma, mb, mc, md, mx, my);
+  }
+
+  /**
+   * Creates a view of an image mirrored left to right.
+   * @param name The name of the view.
+   * @param image The image that is viewed.
+   * @return The flipped view.
+   */
+  public static ViewPhoto horizontalFlip(String name, Photo image) {
+    return of(name, image, image.getWidth(), image.getHeight(), -1, 0, 0, 1,
+        image.getWidth() - 1, 0);
+  }
+
+  /**
+   * Creates a view of an image mirrored top to bottom.
+   * @param name The name of the view.
+   * @param image The image that is viewed.
+   * @return The flipped view.
+   */
+  public static ViewPhoto verticalFlip(String name, Photo image) {
+    return of(name, image, image.getWidth(), image.getHeight(), 1, 0, 0, -1, 0,
+        image.getHeight() - 1);
+  }
+
+  /**
+   * Creates a view of an image mirrored along its main diagonal, swapping rows and columns.
+   * @param name The name of the view.
+   * @param image The image that is viewed.
+   * @return The transposed view.
+   */
+  public static ViewPhoto transpose(String name, Photo image) {
+    return of(name, image, image.getHeight(), image.getWidth(), 0, 1, 1, 0, 0, 0);
+  }
+
+  /**
+   * Creates a view of a rectangle of an image.
+   * The rectangle must lie inside the image.
+   * @param name The name of the view.
+   * @param image The image that is viewed.
+   * @param x The x-coordinate of the top left pixel of the rectangle.
+   * @param y The y-coordinate of the top left pixel of the rectangle.
+   * @param width The width of the rectangle.
+   * @param height The height of the rectangle.
+   * @return The cropped view.
+   */
+  public static ViewPhoto crop(String name, Photo image, int x, int y, int width, int height) {
+    return of(name, image, width, height, 1, 0, 0, 1, x, y);
+  }
+
+  /**
+   * Helper function that copies the view into its own tiled image before the first write.
+   * The copy is created under a lock, so only one is ever made.
+   * @return The copy that now holds the pixels of this image.
+   */
+  private TiledPhoto materialize() {
+    TiledPhoto current = copy;
+    if (current == null) {
+      synchronized (this) {
+        current = copy;
+        if (current == null) {
+          current = new TiledPhoto(getName(), width, height, this::readThrough);
+          copy = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Helper function that reads a rectangle of the view from the parent.
+   * Each row of the view is one row or one column of the parent, possibly reversed.
+   * @param startX   the x-coordinate of the top left pixel.
+   * @param startY   the y-coordinate of the top left pixel.
+   * @param w        the width of the rectangle.
+   * @param h        the height of the rectangle.
+   * @param rgbArray the array the pixels are read into.
+   * @param offset   the index of the top left pixel in the array.
+   * @param scansize the distance in the array between two rows of the rectangle.
+   */
+  private void readThrough(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    for (int i = 0; i < h; i++) {
+      int y = startY + i;
+      int px = a * startX + b * y + tx;
+      int py = c * startX + d * y + ty;
+      int row = offset + i * scansize;
+      if (c == 0) {
+        parent.getRGB(a > 0 ? px : px - w + 1, py, w, 1, rgbArray, row, w);
+      } else {
+        parent.getRGB(px, c > 0 ? py : py - w + 1, 1, w, rgbArray, row, 1);
+      }
+      if (a + c < 0) {
+        for (int j = 0; j < w / 2; j++) {
+          int swap = rgbArray[row + j];
+          rgbArray[row + j] = rgbArray[row + w - j - 1];
+          rgbArray[row + w - j - 1] = swap;
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getRGB(int x, int y) {
+    TiledPhoto current = copy;
+    if (current != null) {
+      return current.getRGB(x, y);
+    }
+    return parent.getRGB(a * x + b * y + tx, c * x + d * y + ty);
+  }
+
+  @Override
+  public void setRGB(int x, int y, int rgb) {
+    materialize().setRGB(x, y, rgb);
+    changed();
+  }
+
+  @Override
+  public void getRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    TiledPhoto current = copy;
+    if (current != null) {
+      current.getRGB(startX, startY, w, h, rgbArray, offset, scansize);
+    } else {
+      readThrough(startX, startY, w, h, rgbArray, offset, scansize);
+    }
+  }
+
+  @Override
+  public void setRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset,
+      int scansize) {
+    materialize().setRGB(startX, startY, w, h, rgbArray, offset, scansize);
+    changed();
+  }
+}
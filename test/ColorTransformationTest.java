@@ -2,17 +2,24 @@ import java.util.Random;
 import org.junit.Test;
 import org.junit.Before;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.PrintWriter;
 
 
 /**
  * Test class ColorTransformation to test transforming image color functions.
  * These functions AdjustComponent,Split, Combine.
  * AdjustComponent all 6 luma, intensity, red, green, value and blue.
+ * Also ColorMatrix, the Lut tone commands, and the fusion of color chains in scripts.
  */
 public class ColorTransformationTest {
 
@@ -134,6 +141,19 @@ public class ColorTransformationTest {
     validateCombine(png, CombinedPng);
   }
 
+  @Test
+  public void CombinedSplitSharesStoredImageTest() {
+    Photo[] split = Model.Split(png, "RedImage", "GreenImage", "BlueImage");
+    Photo combined = Model.Combine("Recombined", split[0], split[1], split[2]);
+    Model.updateDirectory("Recombined", combined);
+    assertSame(Model.getImagePhoto("ImagePNG"), Model.getImagePhoto("Recombined"));
+    assertEquals(png.fingerprint(), combined.fingerprint());
+    assertEquals(png.hashCode(), combined.hashCode());
+    Model.updateDirectory("Recombined", split[0]);
+    assertSame(split[0], Model.getImagePhoto("Recombined"));
+    assertSame(png, Model.getImagePhoto("ImagePNG"));
+  }
+
   @Test
   public void TestColorSplitComponent() {
     Photo RedPng = Model.AdjustComponent(png, "RedPNG", "red");
@@ -228,6 +248,167 @@ public class ColorTransformationTest {
     }
   }
 
+  @Test
+  public void ColorMatrixTest() {
+    int[] pixels = {0x646464, 0x0a0000, 0xffffff};
+    ColorMatrix.component("intensity").apply(pixels, 0, 1);
+    ColorMatrix.brighten(10).then(ColorMatrix.component("red")).apply(pixels, 1, 3);
+    assertArrayEquals(new int[]{0x646464, 0x141414, 0xffffff}, pixels);
+    ColorMatrix darken = ColorMatrix.brighten(-300);
+    darken.apply(pixels, 0, 3);
+    assertArrayEquals(new int[]{0, 0, 0}, pixels);
+    assertNull(ColorMatrix.component("value"));
+    ColorMatrix folded = ColorMatrix.component("red").then(ColorMatrix.component("luma"));
+    assertEquals(1, folded.stages());
+    assertEquals(1.0, folded.get(0, 0), 1e-12);
+    assertEquals(0.0, folded.get(1, 1), 1e-12);
+    ColorMatrix chained = ColorMatrix.sepia().then(ColorMatrix.component("luma"));
+    assertEquals(2, chained.stages());
+    pixels = new int[]{0xffffff, 0x102030};
+    int[] expected = pixels.clone();
+    ColorOps.sepia(expected, 0, 2);
+    ColorOps.component("luma").apply(expected, 0, 2);
+    chained.apply(pixels, 0, 2);
+    assertArrayEquals(expected, pixels);
+  }
+
+  @Test
+  public void ColorChainScriptTest() throws IOException {
+    File script = File.createTempFile("chain", ".txt");
+    script.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(script)) {
+      writer.println("brighten 20 ImagePNG ChainBright");
+      writer.println("# comments between steps do not break the chain");
+      writer.println("sepia ChainBright ChainSepia");
+      writer.println("luma-component ChainSepia ChainLuma");
+      writer.println("red-component ImagePNG KeptRed");
+      writer.println("brighten 5 KeptRed KeptBright");
+      writer.println("blue-component KeptRed KeptBlue");
+    }
+    ColorMatrix matrix = ColorMatrix.sepia().then(ColorMatrix.component("luma"));
+    Photo luma = Model.ColorTransform(matrix, Model.Brighten(20, png, "Bright"), "Expected");
+    Photo red = Model.AdjustComponent(png, "Red", "red");
+    Controller.runScript(script.getPath());
+    assertNull(Model.getImagePhoto("ChainBright"));
+    assertNull(Model.getImagePhoto("ChainSepia"));
+    assertEquals(luma, Model.getImagePhoto("ChainLuma"));
+    assertEquals(Model.Brighten(5, red, "Bright"), Model.getImagePhoto("KeptBright"));
+    assertEquals(red, Model.getImagePhoto("KeptBlue"));
+  }
+
+  @Test
+  public void FusionScriptTest() throws IOException {
+    File script = File.createTempFile("fusion", ".txt");
+    script.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(script)) {
+      writer.println("brighten 10 ImagePNG FusedBright");
+      writer.println("value-component FusedBright FusedValue");
+      writer.println("gamma 2 FusedValue FusedGamma");
+      writer.println("fusion off");
+      writer.println("brighten 10 ImagePNG PlainBright");
+      writer.println("value-component PlainBright PlainValue");
+      writer.println("gamma 2 PlainValue PlainGamma");
+      writer.println("fusion on");
+    }
+    Photo value = Model.AdjustComponent(Model.Brighten(10, png, "Bright"), "Value", "value");
+    Controller.runScript(script.getPath());
+    assertNull(Model.getImagePhoto("FusedBright"));
+    assertNull(Model.getImagePhoto("FusedValue"));
+    assertEquals(Model.Lookup(Lut.gamma(2), value, "Gamma"), Model.getImagePhoto("PlainGamma"));
+    assertEquals(Model.getImagePhoto("PlainGamma"), Model.getImagePhoto("FusedGamma"));
+  }
+
+  @Test
+  public void LutTest() {
+    Lut brighten = Lut.brighten(30);
+    assertEquals(30, brighten.get(0, 0));
+    assertEquals(255, brighten.get(2, 240));
+    assertEquals(Model.Lookup(brighten, png, "LutBright"), Model.Brighten(30, png, "Bright"));
+    Lut gamma = Lut.gamma(2.2);
+    assertEquals(0, gamma.get(0, 0));
+    assertEquals(255, gamma.get(1, 255));
+    assertEquals(186, gamma.get(1, 128));
+    Lut levels = Lut.levels(20, 100, 200);
+    assertEquals(0, levels.get(0, 20));
+    assertEquals(128, levels.get(0, 100));
+    assertEquals(255, levels.get(0, 200));
+    Lut curves = Lut.curves(new int[][]{{64, 0}, {192, 255}});
+    assertEquals(0, curves.get(0, 10));
+    assertEquals(128, curves.get(0, 128));
+    assertEquals(255, curves.get(0, 250));
+    Lut composed = gamma.then(curves).then(Lut.brighten(-10));
+    for (int v = 0; v < 256; v++) {
+      assertEquals(Math.max(0, curves.get(0, gamma.get(0, v)) - 10), composed.get(1, v));
+    }
+  }
+
+  @Test
+  public void LutCommandsTest() {
+    Controller.commandExecutor("levels 20 100 200 ImagePNG LevelsPNG");
+    Controller.commandExecutor("gamma 0.5 ImagePNG GammaPNG");
+    Controller.commandExecutor("curves 0,255;255,0 ImagePNG CurvesPNG");
+    assertEquals(Model.Lookup(Lut.levels(20, 100, 200), png, "Levels"),
+        Model.getImagePhoto("LevelsPNG"));
+    assertEquals(Model.Lookup(Lut.gamma(0.5), png, "Gamma"), Model.getImagePhoto("GammaPNG"));
+    int rgb = png.getRGB(3, 4);
+    assertEquals(0xffffff - rgb, Model.getImagePhoto("CurvesPNG").getRGB(3, 4));
+    PrintStream original = System.out;
+    ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(outContent));
+    Controller.commandExecutor("levels 100 50 200 ImagePNG BadLevels");
+    Controller.commandExecutor("gamma -1 ImagePNG BadGamma");
+    System.setOut(original);
+    assertTrue(outContent.toString().contains("Error: Invalid 'levels' values."));
+    assertTrue(outContent.toString().contains("Error: Invalid 'gamma' values."));
+    assertNull(Model.getImagePhoto("BadLevels"));
+  }
+
+  @Test
+  public void HistogramTest() {
+    long[][] histogram = Model.Histogram(png);
+    long pixels = (long) png.getWidth() * png.getHeight();
+    for (int c = 0; c < 3; c++) {
+      long total = 0;
+      for (int v = 0; v < 256; v++) {
+        total += histogram[c][v];
+      }
+      assertEquals(pixels, total);
+    }
+    int rgb = png.getRGB(0, 0);
+    assertTrue(histogram[0][rgb >> 16 & 0xff] > 0);
+    Photo copy = Model.Brighten(0, png, "HistogramCopy");
+    Model.setParallelism(3);
+    try {
+      long[][] parallel = Model.Histogram(copy);
+      for (int c = 0; c < 3; c++) {
+        assertArrayEquals(histogram[c], parallel[c]);
+      }
+    } finally {
+      Model.setParallelism(1);
+    }
+    copy.setRGB(0, 0, rgb ^ 0xff0000);
+    assertEquals(histogram[0][rgb >> 16 & 0xff] - 1,
+        Model.Histogram(copy)[0][rgb >> 16 & 0xff]);
+  }
+
+  @Test
+  public void HistogramCommandsTest() {
+    Controller.commandExecutor("histogram ImagePNG HistogramPNG");
+    Controller.commandExecutor("equalize ImagePNG EqualizedPNG");
+    Photo histogram = Model.getImagePhoto("HistogramPNG");
+    assertEquals(256, histogram.getWidth());
+    assertEquals(256, histogram.getHeight());
+    assertEquals(0xffffff, histogram.getRGB(1, 1));
+    Photo equalized = Model.getImagePhoto("EqualizedPNG");
+    assertEquals(Model.Lookup(Lut.equalize(Model.Histogram(png)), png, "Equalized"), equalized);
+    long[][] flat = Model.Histogram(equalized);
+    int highest = 255;
+    while (flat[1][highest] == 0) {
+      highest--;
+    }
+    assertEquals(255, highest);
+  }
+
   private void validateCombine(Photo ext, Photo Combined) {
     int width = ext.getWidth();
     int height = ext.getHeight();
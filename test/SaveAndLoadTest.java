@@ -1,10 +1,25 @@
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -150,4 +165,299 @@ public class SaveAndLoadTest {
     File output = new File(outputFile);
     assertTrue(output.exists());
   }
+
+  @Test
+  public void testStreamingScript() throws IOException {
+    File script = File.createTempFile("stream", ".txt");
+    script.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(script)) {
+      writer.println("streaming on");
+      writer.println("load resources/sample-png.png StreamIn");
+      writer.println("brighten 10 StreamIn StreamBright");
+      writer.println("blur StreamBright StreamBlur");
+      writer.println("sharpen StreamBlur StreamSharp");
+      writer.println("horizontal-flip StreamSharp StreamFlip");
+      writer.println("sepia StreamFlip StreamSepia");
+      writer.println("save saved/streamed.png StreamSepia");
+      writer.println("load resources/sample-png.png CopyIn");
+      writer.println("save saved/streamed.ppm CopyIn");
+      writer.println("load saved/streamed.ppm CopyBack");
+      writer.println("save saved/streamed-back.png CopyBack");
+      writer.println("streaming off");
+    }
+    Controller.runScript(script.getPath());
+    assertNull(model.getImagePhoto("StreamIn"));
+    assertNull(model.getImagePhoto("StreamBlur"));
+    assertNull(model.getImagePhoto("StreamSepia"));
+    Photo png = Controller.Load("resources/sample-png.png", "ImagePNG");
+    Photo expected = model.Sepia(model.HorizontalFlip(model.Sharpen(model.Blur(
+        model.Brighten(10, png, "Bright"), "Blur"), "Sharp"), "Flip"), "Sepia");
+    assertEquals(expected, Controller.Load("saved/streamed.png", "Streamed"));
+    assertEquals(png, Controller.Load("saved/streamed-back.png", "StreamedBack"));
+    Files.copy(Paths.get("resources/sample-png.png"), Paths.get("saved/overwritten.png"),
+        StandardCopyOption.REPLACE_EXISTING);
+    try (PrintWriter writer = new PrintWriter(script)) {
+      writer.println("streaming on");
+      writer.println("load saved/overwritten.png Overwrite");
+      writer.println("sepia Overwrite OverwriteSepia");
+      writer.println("save ./saved/overwritten.png OverwriteSepia");
+      writer.println("streaming off");
+    }
+    Controller.runScript(script.getPath());
+    assertEquals(model.Sepia(png, "Sepia"), Controller.Load("saved/overwritten.png",
+        "Overwritten"));
+    Files.write(Paths.get("saved/truncated.ppm"),
+        "P3\n4 4\n255\n1 2 3\n4 5 6\n".getBytes(StandardCharsets.US_ASCII));
+    try (PrintWriter writer = new PrintWriter(script)) {
+      writer.println("streaming on");
+      writer.println("load saved/truncated.ppm Truncated");
+      writer.println("sepia Truncated TruncatedSepia");
+      writer.println("save saved/overwritten.png TruncatedSepia");
+      writer.println("streaming off");
+    }
+    Controller.runScript(script.getPath());
+    assertEquals(model.Sepia(png, "Sepia"), Controller.Load("saved/overwritten.png",
+        "Kept"));
+    assertEquals(0, new File("saved").list((dir, name) -> name.startsWith(".stream")).length);
+  }
+
+  @Test
+  public void testBackgroundSaves() throws IOException {
+    File script = File.createTempFile("saves", ".txt");
+    script.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(script)) {
+      writer.println("saves background");
+      writer.println("load resources/sample-png.png SaveIn");
+      writer.println("save saved/background.png SaveIn");
+      writer.println("save saved/background.ppm SaveIn");
+      writer.println("brighten 40 SaveIn SaveIn");
+      writer.println("save saved/background-bright.png SaveIn");
+      writer.println("load saved/background.png SaveBack");
+      writer.println("blur SaveBack SaveBack");
+      writer.println("save saved/background.png SaveBack");
+      writer.println("save saved/background.txt SaveBack");
+      writer.println("saves wait");
+    }
+    PrintStream console = System.out;
+    ByteArrayOutputStream feedback = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(feedback, true));
+    try {
+      Controller.runScript(script.getPath());
+    } finally {
+      System.setOut(console);
+    }
+    List<String> lines = Arrays.asList(feedback.toString().split("\\R"));
+    assertEquals(Arrays.asList("Saved saved/background.png using SaveIn",
+        "Saved saved/background.ppm using SaveIn",
+        "Saved saved/background-bright.png using SaveIn",
+        "Saved saved/background.png using SaveBack",
+        "Error saving image saved/background.txt"), lines.subList(lines.size() - 5,
+        lines.size()));
+    Photo png = Controller.Load("resources/sample-png.png", "ImagePNG");
+    Photo bright = model.Brighten(40, png, "Bright");
+    assertEquals(png, Controller.Load("saved/background.ppm", "BackgroundPPM"));
+    assertEquals(bright, Controller.Load("saved/background-bright.png", "BackgroundBright"));
+    assertEquals(model.Blur(png, "Blur"), Controller.Load("saved/background.png", "Blurred"));
+  }
+
+  @Test
+  public void testWaitForSavesOfViews() {
+    Photo png = Controller.Load("resources/sample-png.png", "ImagePNG");
+    Photo view = model.HorizontalFlip(png, "Flipped");
+    Photo other = model.Brighten(10, png, "Other");
+    SaveQueue queue = new SaveQueue(1, 1);
+    AtomicBoolean saved = new AtomicBoolean();
+    queue.submit("saved/view.png", "Flipped", view, () -> {
+      Thread.sleep(200);
+      saved.set(true);
+      return true;
+    });
+    queue.waitFor(other);
+    assertFalse(saved.get());
+    queue.waitFor(png);
+    assertTrue(saved.get());
+  }
+
+  @Test
+  public void testFinishedSavesReleaseImages() {
+    AbstractPhoto parent = new ImagePhoto("Parent", 8, 8);
+    SaveQueue queue = new SaveQueue(1, 1);
+    saveView(queue, parent);
+    assertTrue(parent.hasReaders());
+    queue.waitForFile("saved/released.png");
+    for (int i = 0; i < 50 && parent.hasReaders(); i++) {
+      System.gc();
+    }
+    assertFalse(parent.hasReaders());
+  }
+
+  private void saveView(SaveQueue queue, Photo parent) {
+    Photo view = model.HorizontalFlip(parent, "ReleasedView");
+    queue.submit("saved/released.png", "ReleasedView", view, () -> view.getWidth() == 8);
+  }
+
+  @Test
+  public void testPrefetchedLoads() throws IOException {
+    Photo png = Controller.Load("resources/sample-png.png", "ImagePNG");
+    Controller.Save("saved/prefetch.png", "ImagePNG");
+    Photo sepia = model.Sepia(png, "Sepia");
+    model.updateDirectory("ImageSepia", sepia);
+    Controller.Save("saved/prefetch-sepia.png", "ImageSepia");
+    model.updateDirectory("ImageSepia", null);
+    File script = File.createTempFile("prefetch", ".txt");
+    script.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(script)) {
+      writer.println("load resources/sample-png.png AheadPNG");
+      writer.println("load resources/sample-jpg.jpg AheadJPG");
+      writer.println("load resources/sample-ppm.ppm AheadPPM");
+      writer.println("brighten 30 AheadPNG AheadBright");
+      writer.println("save saved/prefetch.png AheadBright");
+      writer.println("load saved/prefetch.png AheadSaved");
+      writer.println("storage planar");
+      writer.println("load saved/prefetch-sepia.png AheadPlanar");
+      writer.println("storage packed");
+    }
+    Controller.runScript(script.getPath());
+    assertEquals(png, model.getImagePhoto("AheadPNG"));
+    assertEquals(Controller.Load("resources/sample-jpg.jpg", "ImageJPG"),
+        model.getImagePhoto("AheadJPG"));
+    assertEquals(Controller.Load("resources/sample-ppm.ppm", "ImagePPM"),
+        model.getImagePhoto("AheadPPM"));
+    assertEquals(model.Brighten(30, png, "Bright"), model.getImagePhoto("AheadSaved"));
+    assertTrue(model.getImagePhoto("AheadPlanar") instanceof PlanarPhoto);
+    assertEquals(sepia, model.getImagePhoto("AheadPlanar"));
+  }
+
+  @Test
+  public void testLoadPPM() throws IOException {
+    Photo png = Controller.Load("resources/sample-png.png", "ImagePNG");
+    Controller.Save("saved/round-trip.ppm", "ImagePNG");
+    assertEquals(png, Controller.Load("saved/round-trip.ppm", "RoundTrip"));
+    List<String> lines = Files.readAllLines(Paths.get("saved/round-trip.ppm"));
+    assertEquals(3 + png.getWidth() * png.getHeight(), lines.size());
+    assertEquals(png.getWidth() + " " + png.getHeight(), lines.get(1));
+    int[] last = png.getPixels()[png.getWidth() - 1][png.getHeight() - 1];
+    assertEquals(last[0] + " " + last[1] + " " + last[2], lines.get(lines.size() - 1));
+    File file = File.createTempFile("comments", ".ppm");
+    file.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(file)) {
+      writer.println("P3 # plain ppm");
+      writer.println();
+      writer.println("2 1");
+      writer.println("# values up to 15");
+      writer.println("15");
+      writer.println("15 0 8");
+      writer.println();
+      writer.println("1 2 3");
+    }
+    Photo small = Controller.Load(file.getPath(), "Comments");
+    assertEquals(0xff0088, small.getRGB(0, 0));
+    assertEquals(0x112233, small.getRGB(1, 0));
+    try (PrintWriter writer = new PrintWriter(file)) {
+      writer.println("P3 2 1 255 1 2 3 4");
+    }
+    assertNull(Controller.Load(file.getPath(), "Truncated"));
+  }
+
+  @Test
+  public void testBinaryPPM() throws IOException {
+    Photo png = Controller.Load("resources/sample-png.png", "ImagePNG");
+    Controller.commandExecutor("ppm binary");
+    try {
+      Controller.Save("saved/binary.ppm", "ImagePNG");
+    } finally {
+      Controller.commandExecutor("ppm plain");
+    }
+    byte[] saved = Files.readAllBytes(Paths.get("saved/binary.ppm"));
+    String header = "P6\n" + png.getWidth() + " " + png.getHeight() + "\n255\n";
+    assertEquals(header, new String(saved, 0, header.length(), StandardCharsets.US_ASCII));
+    assertEquals(header.length() + 3 * png.getWidth() * png.getHeight(), saved.length);
+    assertEquals(png, Controller.Load("saved/binary.ppm", "Binary"));
+    File file = File.createTempFile("deep", ".ppm");
+    file.deleteOnExit();
+    byte[] head = "P6 # 16 bits\n1 1 65535\n".getBytes(StandardCharsets.US_ASCII);
+    byte[] deep = Arrays.copyOf(head, head.length + 6);
+    deep[head.length] = (byte) 0xff;
+    deep[head.length + 1] = (byte) 0xff;
+    deep[head.length + 2] = (byte) 0x80;
+    Files.write(file.toPath(), deep);
+    assertEquals(0xff8000, Controller.Load(file.getPath(), "Deep").getRGB(0, 0));
+    Files.write(file.toPath(), Arrays.copyOf(deep, deep.length - 1));
+    assertNull(Controller.Load(file.getPath(), "Short"));
+  }
+
+  @Test
+  public void testLoadImageTypes() throws IOException {
+    int[] types = {BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY,
+        BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_INT_ARGB};
+    for (int type : types) {
+      BufferedImage image = new BufferedImage(7, 5, type);
+      for (int y = 0; y < 5; y++) {
+        for (int x = 0; x < 7; x++) {
+          image.setRGB(x, y, 0x80000000 | x * 0x241b07 + y * 0x0b3152);
+        }
+      }
+      File file = File.createTempFile("type" + type, ".png");
+      file.deleteOnExit();
+      ImageIO.write(image, "png", file);
+      BufferedImage decoded = ImageIO.read(file);
+      Photo loaded = Controller.Load(file.getPath(), "Type" + type);
+      for (int y = 0; y < 5; y++) {
+        for (int x = 0; x < 7; x++) {
+          assertEquals(decoded.getRGB(x, y) & 0xffffff, loaded.getRGB(x, y));
+        }
+      }
+    }
+    Photo png = Controller.Load("resources/sample-png.png", "ImagePNG");
+    Controller.Save("saved/roundtrip.png", "ImagePNG");
+    assertEquals(png, Controller.Load("saved/roundtrip.png", "RoundTrip"));
+  }
+
+  @Test
+  public void testRgbPngWithSuggestedPalette() throws IOException {
+    BufferedImage image = new BufferedImage(7, 5, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 5; y++) {
+      for (int x = 0; x < 7; x++) {
+        image.setRGB(x, y, x * 0x241b07 + y * 0x0b3152);
+      }
+    }
+    File file = File.createTempFile("suggested", ".png");
+    file.deleteOnExit();
+    ImageIO.write(image, "png", file);
+    byte[] png = Files.readAllBytes(file.toPath());
+    byte[] plte = {0, 0, 0, 6, 'P', 'L', 'T', 'E', 0x12, 0x34, 0x56, 0x78, (byte) 0x9a,
+        (byte) 0xbc, 0, 0, 0, 0};
+    CRC32 crc = new CRC32();
+    crc.update(plte, 4, 10);
+    for (int i = 0; i < 4; i++) {
+      plte[14 + i] = (byte) (crc.getValue() >> (24 - 8 * i));
+    }
+    byte[] suggested = new byte[png.length + plte.length];
+    System.arraycopy(png, 0, suggested, 0, 33);
+    System.arraycopy(plte, 0, suggested, 33, plte.length);
+    System.arraycopy(png, 33, suggested, 33 + plte.length, png.length - 33);
+    Files.write(file.toPath(), suggested);
+    int[] row = new int[7];
+    try (ScanlineReader reader = ScanlineReader.open(file.getPath())) {
+      assertNotNull(reader);
+      for (int y = 0; y < 5; y++) {
+        reader.readRow(row);
+        for (int x = 0; x < 7; x++) {
+          assertEquals(image.getRGB(x, y) & 0xffffff, row[x]);
+        }
+      }
+    }
+    StorageMode mode = model.getStorageMode();
+    model.setStorageMode(StorageMode.TILED);
+    try {
+      Photo tiled = Controller.Load(file.getPath(), "Suggested");
+      for (int y = 0; y < 5; y++) {
+        for (int x = 0; x < 7; x++) {
+          assertEquals(image.getRGB(x, y) & 0xffffff, tiled.getRGB(x, y));
+        }
+      }
+    } finally {
+      model.setStorageMode(mode);
+    }
+  }
 }
@@ -5,8 +5,10 @@ import org.junit.Before;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
@@ -14,7 +16,7 @@ import java.io.PrintStream;
 
 /**
  * Test class SimpleProcessing to test basic image processing functions.
- * These functions include Brighten, Split, Combine, Sepia and Flip.
+ * These functions include Brighten, Split, Combine, Sepia, Flip, Transpose, Crop and Resize.
  * It also contains a small sample script test.
  */
 public class SimpleProcessingTest {
@@ -129,6 +131,130 @@ public class SimpleProcessingTest {
 
   }
 
+  @Test
+  public void DoubleFlipTest() {
+    Photo twice = Model.HorizontalFlip(Model.HorizontalFlip(png, "Once"), "Twice");
+    assertEquals(png, twice);
+    Photo rotated = Model.VerticalFlip(Model.HorizontalFlip(jpg, "H"), "HV");
+    assertEquals(jpg.getRGB(0, 0),
+        rotated.getRGB(jpg.getWidth() - 1, jpg.getHeight() - 1));
+  }
+
+  @Test
+  public void TransposeTest() {
+    Photo transposed = Model.Transpose(png, "Transposed");
+    assertEquals(png.getHeight(), transposed.getWidth());
+    assertEquals(png.getWidth(), transposed.getHeight());
+    Random rand = new Random();
+    for (int i = 0; i < 50; i++) {
+      int x = rand.nextInt(png.getWidth());
+      int y = rand.nextInt(png.getHeight());
+      assertEquals(png.getRGB(x, y), transposed.getRGB(y, x));
+    }
+    assertEquals(png, Model.Transpose(transposed, "Back"));
+  }
+
+  @Test
+  public void CropTest() {
+    Photo cropped = Model.Crop(png, "Cropped", 10, 20, 30, 40);
+    assertEquals(30, cropped.getWidth());
+    assertEquals(40, cropped.getHeight());
+    for (int y = 0; y < 40; y++) {
+      for (int x = 0; x < 30; x++) {
+        assertEquals(png.getRGB(x + 10, y + 20), cropped.getRGB(x, y));
+      }
+    }
+    assertEquals(null, Model.Crop(png, "TooBig", 10, 20, png.getWidth(), 40));
+  }
+
+  @Test
+  public void ResizeTest() {
+    Photo half = Model.Resize(png, "Half", (png.getWidth() + 1) / 2, (png.getHeight() + 1) / 2);
+    for (int c = 0; c < 24; c += 8) {
+      int sum = (png.getRGB(2, 4) >> c & 0xff) + (png.getRGB(3, 4) >> c & 0xff)
+          + (png.getRGB(2, 5) >> c & 0xff) + (png.getRGB(3, 5) >> c & 0xff);
+      assertTrue(Math.abs((sum + 2) / 4 - (half.getRGB(1, 2) >> c & 0xff)) <= 1);
+    }
+    assertEquals(png, Model.Resize(png, "Same", png.getWidth(), png.getHeight()));
+    Photo thumbnail = Model.Thumbnail(png, "Thumbnail", 16);
+    assertEquals(16, Math.max(thumbnail.getWidth(), thumbnail.getHeight()));
+    assertEquals(png, Model.Thumbnail(png, "Larger", 100000));
+    Photo[] pyramid = ((AbstractPhoto) png).cachedPyramid();
+    assertTrue(pyramid.length > 2);
+    assertEquals(thumbnail, Model.Resize(png, "Again", thumbnail.getWidth(),
+        thumbnail.getHeight()));
+    assertTrue(pyramid == ((AbstractPhoto) png).cachedPyramid());
+    Photo grey = Model.createPhoto("Grey", 7, 5);
+    for (int y = 0; y < 5; y++) {
+      for (int x = 0; x < 7; x++) {
+        grey.setRGB(x, y, 0x808080);
+      }
+    }
+    Model.Thumbnail(grey, "GreyThumbnail", 2);
+    grey.setRGB(0, 0, 0);
+    assertNull(((AbstractPhoto) grey).cachedPyramid());
+    Photo larger = Model.Resize(grey, "GreyLarger", 20, 3);
+    assertEquals(0x808080, larger.getRGB(19, 2));
+    assertEquals(null, Model.Resize(png, "Empty", 0, 10));
+    Controller.commandExecutor("thumbnail 16 ImagePNG ThumbnailPNG");
+    Controller.commandExecutor("resize 8 6 ImagePNG SmallPNG");
+    assertEquals(thumbnail, Model.getImagePhoto("ThumbnailPNG"));
+    assertEquals(8, Model.getImagePhoto("SmallPNG").getWidth());
+  }
+
+  @Test
+  public void RegionTest() {
+    Photo blurred = Model.Blur(png, "FullBlur");
+    Model.setRegion(10, 20, 30, 40);
+    Photo regionBlur = Model.Blur(png, "RegionBlur");
+    Photo regionSepia = Model.Sepia(png, "RegionSepia");
+    Model.clearRegion();
+    Photo sepia = Model.Sepia(png, "FullSepia");
+    for (int y = 0; y < png.getHeight(); y++) {
+      for (int x = 0; x < png.getWidth(); x++) {
+        boolean inside = x >= 10 && x < 40 && y >= 20 && y < 60;
+        assertEquals((inside ? blurred : png).getRGB(x, y), regionBlur.getRGB(x, y));
+        assertEquals((inside ? sepia : png).getRGB(x, y), regionSepia.getRGB(x, y));
+      }
+    }
+    Model.setRegion(png.getWidth() - 2, 0, 10, 1);
+    Photo edge = Model.Brighten(30, png, "EdgeBright");
+    Model.clearRegion();
+    assertEquals(png.getRGB(png.getWidth() - 3, 0), edge.getRGB(png.getWidth() - 3, 0));
+    assertEquals(Model.Brighten(30, png, "Bright").getRGB(png.getWidth() - 1, 0),
+        edge.getRGB(png.getWidth() - 1, 0));
+    try {
+      Model.setRegion(0, 0, 0, 5);
+      fail("An empty region must be rejected");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Invalid region", e.getMessage());
+    }
+    Controller.commandExecutor("blur ImagePNG RegionBlurPNG region 10 20 30 40");
+    assertEquals(regionBlur, Model.getImagePhoto("RegionBlurPNG"));
+    Controller.Load("resources/sample-png.png", "RegionCopy");
+    Controller.commandExecutor("sepia RegionCopy RegionCopy region 10 20 30 40");
+    assertEquals(regionSepia, Model.getImagePhoto("RegionCopy"));
+    PrintStream original = System.out;
+    ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(outContent));
+    Controller.commandExecutor("horizontal-flip ImagePNG RegionFlip region 0 0 5 5");
+    Controller.commandExecutor("blur ImagePNG RegionBad region 0 0 -5 5");
+    System.setOut(original);
+    assertTrue(outContent.toString().contains("Error: Invalid region for 'horizontal-flip'."));
+    assertTrue(outContent.toString().contains("Error: Invalid region for 'blur'."));
+    assertEquals(null, Model.getImagePhoto("RegionFlip"));
+  }
+
+  @Test
+  public void WriteToViewTest() {
+    Photo flipped = Model.HorizontalFlip(png, "Flipped");
+    int original = png.getRGB(png.getWidth() - 1, 0);
+    flipped.setRGB(0, 0, ~original & 0xffffff);
+    assertEquals(~original & 0xffffff, flipped.getRGB(0, 0));
+    assertEquals(original, png.getRGB(png.getWidth() - 1, 0));
+    assertEquals(png.getRGB(png.getWidth() - 2, 0), flipped.getRGB(1, 0));
+  }
+
   private void testImageBrightening(Photo ext) {
     Photo brightenedImage = Model.Brighten(45, ext, "BrightenedImage");
     Photo darkenedImage = Model.Brighten(-45, ext, "DarkenedImage");
@@ -194,6 +320,127 @@ public class SimpleProcessingTest {
     assertNotEquals(ext, Blur);
   }
 
+  @Test
+  public void BrightenSaturatesChannelsTest() {
+    int[] pixels = {0xff00ff, 0x00ff00, 0x80017f, 0xfefefe};
+    ColorOps.brighten(pixels, 0, 4, 1);
+    assertArrayEquals(new int[]{0xff01ff, 0x01ff01, 0x810280, 0xffffff}, pixels);
+    ColorOps.brighten(pixels, 0, 4, -300);
+    assertArrayEquals(new int[]{0, 0, 0, 0}, pixels);
+    pixels = new int[]{0x0a1400, 0xffffff};
+    ColorOps.brighten(pixels, 0, 2, -15);
+    assertArrayEquals(new int[]{0x000500, 0xf0f0f0}, pixels);
+  }
+
+  @Test
+  public void BlurAndSharpenMatchKernelsTest() {
+    double[][] blur = {
+        {1 / 16.0, 1 / 8.0, 1 / 16.0},
+        {1 / 8.0, 1 / 4.0, 1 / 8.0},
+        {1 / 16.0, 1 / 8.0, 1 / 16.0}
+    };
+    double[][] sharpen = {
+        {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0},
+        {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+        {-1 / 8.0, 1 / 4.0, 1.0, 1 / 4.0, -1 / 8.0},
+        {-1 / 8.0, 1 / 4.0, 1 / 4.0, 1 / 4.0, -1 / 8.0},
+        {-1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0, -1 / 8.0}
+    };
+    Photo Blur = Model.Blur(png, "BlurImage");
+    Photo Sharpen = Model.Sharpen(png, "SharpenImage");
+    int width = png.getWidth();
+    int height = png.getHeight();
+    int[][] points = {{0, 0}, {width - 1, height - 1}, {1, height - 2}, {width - 2, 0}};
+    for (int[] point : points) {
+      assertEquals(convolveAt(png, blur, point[0], point[1]), Blur.getRGB(point[0], point[1]));
+      assertEquals(convolveAt(png, sharpen, point[0], point[1]),
+          Sharpen.getRGB(point[0], point[1]));
+    }
+    Random rand = new Random();
+    for (int i = 0; i < 50; i++) {
+      int x = rand.nextInt(width);
+      int y = rand.nextInt(height);
+      assertEquals(convolveAt(png, blur, x, y), Blur.getRGB(x, y));
+      assertEquals(convolveAt(png, sharpen, x, y), Sharpen.getRGB(x, y));
+    }
+  }
+
+  @Test
+  public void KernelFixedPointTest() {
+    Kernel exact = Kernel.of(new double[][]{{-1 / 8.0, 1 / 4.0, 1.0}});
+    assertEquals(3, exact.getShift());
+    assertEquals(-1, exact.weight(0, 0));
+    assertEquals(8, exact.weight(0, 2));
+    Kernel rounded = Kernel.of(new double[][]{{1 / 3.0}});
+    assertEquals(22, rounded.getShift());
+    assertEquals(1398101, rounded.weight(0, 0));
+  }
+
+  @Test
+  public void ConvolveCommandTest() {
+    Controller.commandExecutor(
+        "convolve 1/16,1/8,1/16;1/8,1/4,1/8;1/16,1/8,1/16 ImagePNG ConvolvedImage");
+    assertEquals(Model.Blur(png, "BlurImage"), Model.getImagePhoto("ConvolvedImage"));
+  }
+
+  @Test
+  public void ConvolveInvalidKernelTest() {
+    PrintStream original = System.out;
+    ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(outContent));
+    Controller.commandExecutor("convolve 1,1;1,1 ImagePNG EvenImage");
+    Controller.commandExecutor("convolve 1,a,1 ImagePNG BadImage");
+    System.setOut(original);
+    assertTrue(outContent.toString().contains("Error: Kernel sizes must be odd"));
+    assertTrue(outContent.toString().contains("Error: Could not read kernel"));
+    assertEquals(null, Model.getImagePhoto("EvenImage"));
+    assertEquals(null, Model.Convolve(new double[][]{{1, 1}}, png, "EvenImage"));
+  }
+
+  @Test
+  public void LargeKernelConvolveTest() {
+    Random rand = new Random();
+    double[][] kernel = new double[15][13];
+    for (double[] row : kernel) {
+      for (int l = 0; l < row.length; l++) {
+        row[l] = (rand.nextInt(33) - 8) / 1024.0;
+      }
+    }
+    Photo Convolved = Model.Convolve(kernel, png, "ConvolvedImage");
+    int width = png.getWidth();
+    int height = png.getHeight();
+    int[][] points = {{0, 0}, {width - 1, height - 1}, {3, height - 5}, {width - 6, 2}};
+    for (int[] point : points) {
+      assertEquals(convolveAt(png, kernel, point[0], point[1]),
+          Convolved.getRGB(point[0], point[1]));
+    }
+    for (int i = 0; i < 50; i++) {
+      int x = rand.nextInt(width);
+      int y = rand.nextInt(height);
+      assertEquals(convolveAt(png, kernel, x, y), Convolved.getRGB(x, y));
+    }
+  }
+
+  private int convolveAt(Photo ext, double[][] kernel, int x, int y) {
+    int ry = kernel.length / 2;
+    int rx = kernel[0].length / 2;
+    double[] sums = new double[3];
+    for (int k = -ry; k <= ry; k++) {
+      for (int l = -rx; l <= rx; l++) {
+        if (x + l >= 0 && x + l < ext.getWidth() && y + k >= 0 && y + k < ext.getHeight()) {
+          int[] pixel = ext.getPixels()[x + l][y + k];
+          for (int c = 0; c < 3; c++) {
+            sums[c] += pixel[c] * kernel[k + ry][l + rx];
+          }
+        }
+      }
+    }
+    int r = Math.min(255, Math.max(0, (int) sums[0]));
+    int g = Math.min(255, Math.max(0, (int) sums[1]));
+    int b = Math.min(255, Math.max(0, (int) sums[2]));
+    return (r << 16) | (g << 8) | b;
+  }
+
   private void testImageSharpen(Photo ext) {
     Photo Sharpen = Model.Sharpen(ext, "SharpenImage");
     assertNotEquals(ext, Sharpen);
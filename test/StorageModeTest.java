@@ -0,0 +1,304 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class StorageMode to test that every storage gives the same results.
+ * Each image operation is run on a packed and on a planar copy of the same image,
+ * and on a single thread and on several.
+ */
+public class StorageModeTest {
+
+  private ImageModel Model;
+  private ImageController Controller;
+  Photo packed;
+  Photo planar;
+  int tileCache;
+
+  @Before
+  public void setUp() {
+    Model = new ImageModel();
+    tileCache = Model.getTileCache();
+    Controller = new ImageController();
+    Model.setStorageMode(StorageMode.PACKED);
+    packed = Controller.Load("resources/sample-png.png", "PackedPNG");
+    Model.setStorageMode(StorageMode.PLANAR);
+    planar = Controller.Load("resources/sample-png.png", "PlanarPNG");
+  }
+
+  @After
+  public void tearDown() {
+    Model.setTileCache(tileCache);
+    Model.setStorageMode(StorageMode.PACKED);
+    Model.setParallelism(1);
+  }
+
+  @Test
+  public void LoadedImagesEqualTest() {
+    assertTrue(packed instanceof ImagePhoto);
+    assertTrue(planar instanceof PlanarPhoto);
+    assertEquals(packed, planar);
+    assertEquals(planar, packed);
+    assertEquals(packed.hashCode(), planar.hashCode());
+  }
+
+  @Test
+  public void PlanarOperationsTest() {
+    for (String component : new String[]{"red", "green", "blue", "luma", "value", "intensity"}) {
+      assertEquals(Model.AdjustComponent(packed, "PackedComp", component),
+          Model.AdjustComponent(planar, "PlanarComp", component));
+    }
+    assertEquals(Model.Brighten(45, packed, "PackedBright"),
+        Model.Brighten(45, planar, "PlanarBright"));
+    assertEquals(Model.Brighten(-45, packed, "PackedDark"),
+        Model.Brighten(-45, planar, "PlanarDark"));
+    assertEquals(Model.Sepia(packed, "PackedSepia"), Model.Sepia(planar, "PlanarSepia"));
+    assertEquals(Model.Blur(packed, "PackedBlur"), Model.Blur(planar, "PlanarBlur"));
+    assertEquals(Model.Sharpen(packed, "PackedSharp"), Model.Sharpen(planar, "PlanarSharp"));
+    assertEquals(Model.HorizontalFlip(packed, "PackedH"), Model.HorizontalFlip(planar, "PlanarH"));
+    assertEquals(Model.VerticalFlip(packed, "PackedV"), Model.VerticalFlip(planar, "PlanarV"));
+  }
+
+  @Test
+  public void MappedOperationsTest() {
+    Model.setStorageMode(StorageMode.MAPPED);
+    Photo mapped = Controller.Load("resources/sample-png.png", "MappedPNG");
+    assertTrue(mapped instanceof MappedPhoto);
+    assertEquals(packed, mapped);
+    assertEquals(Model.Brighten(45, packed, "PackedBright"),
+        Model.Brighten(45, mapped, "MappedBright"));
+    assertEquals(Model.Blur(packed, "PackedBlur"), Model.Blur(mapped, "MappedBlur"));
+    assertEquals(Model.Sharpen(packed, "PackedSharp"), Model.Sharpen(mapped, "MappedSharp"));
+    assertEquals(Model.VerticalFlip(packed, "PackedV"), Model.VerticalFlip(mapped, "MappedV"));
+  }
+
+  @Test
+  public void TiledOperationsTest() {
+    Model.setStorageMode(StorageMode.TILED);
+    Photo tiled = Controller.Load("resources/sample-png.png", "TiledPNG");
+    assertTrue(tiled instanceof TiledPhoto);
+    Photo blur = Model.Blur(Model.Sharpen(tiled, "TiledSharp"), "TiledBlur");
+    assertTrue(blur instanceof TiledPhoto);
+    Photo expected = Model.Blur(Model.Sharpen(packed, "PackedSharp"), "PackedBlur");
+    assertEquals(expected.getRGB(300, 300), blur.getRGB(300, 300));
+    assertEquals(expected, blur);
+    assertEquals(Model.HorizontalFlip(packed, "PackedH"), Model.HorizontalFlip(tiled, "TiledH"));
+    assertEquals(Model.Combine("PackedC", packed, packed, packed),
+        Model.Combine("TiledC", tiled, tiled, tiled));
+    blur.setRGB(0, 0, 0x123456);
+    assertEquals(0x123456, blur.getRGB(0, 0));
+    assertEquals(expected.getRGB(1, 0), blur.getRGB(1, 0));
+  }
+
+  @Test
+  public void SharedPlanesCopyOnWriteTest() {
+    Photo[] split = Model.Split(planar, "R", "G", "B");
+    Photo combined = Model.Combine("Combined", split[0], split[1], split[2]);
+    assertEquals(packed, combined);
+    int before = planar.getRGB(0, 0);
+    combined.setRGB(0, 0, 0x123456);
+    split[0].setRGB(1, 0, 0x000000);
+    assertEquals(before, planar.getRGB(0, 0));
+    assertEquals(packed, planar);
+    assertEquals(0x123456, combined.getRGB(0, 0));
+  }
+
+  @Test
+  public void InPlaceOperationsTest() {
+    Photo source = Model.Brighten(37, packed, "InPlace");
+    Photo expected = Model.VerticalFlip(Model.Sepia(source, "Sepia"), "Flip");
+    Model.updateDirectory("InPlace", source);
+    Photo stored = Model.getImagePhoto("InPlace");
+    Controller.commandExecutor("sepia InPlace InPlace");
+    Controller.commandExecutor("vertical-flip InPlace InPlace");
+    assertSame(stored, Model.getImagePhoto("InPlace"));
+    assertEquals(expected, stored);
+
+    Model.updateDirectory("InPlaceShared", stored);
+    Controller.commandExecutor("brighten 10 InPlace InPlace");
+    assertEquals(expected, Model.getImagePhoto("InPlaceShared"));
+    assertEquals(Model.Brighten(10, expected, "Bright"), Model.getImagePhoto("InPlace"));
+
+    Controller.commandExecutor("horizontal-flip InPlaceShared InPlaceView");
+    Controller.commandExecutor("luma-component InPlaceShared InPlaceShared");
+    assertEquals(Model.HorizontalFlip(expected, "View"), Model.getImagePhoto("InPlaceView"));
+    assertEquals(Model.AdjustComponent(expected, "Luma", "luma"),
+        Model.getImagePhoto("InPlaceShared"));
+  }
+
+  @Test
+  public void InPlaceSharedPlanesTest() {
+    Model.setParallelism(4);
+    Photo source = Model.Brighten(29, planar, "SharedPlanes");
+    Photo original = Model.Brighten(0, source, "Original");
+    for (String channel : new String[] {"red", "green", "blue"}) {
+      Photo component = Model.AdjustComponent(source, channel + "Shared", channel);
+      assertTrue(component instanceof PlanarPhoto);
+      Photo expected = Model.Sepia(component, "Sepia");
+      Model.updateDirectory(channel + "Shared", component);
+      Controller.commandExecutor("sepia " + channel + "Shared " + channel + "Shared");
+      assertSame(component, Model.getImagePhoto(channel + "Shared"));
+      assertEquals(expected, component);
+    }
+    assertEquals(original, source);
+  }
+
+  @Test
+  public void InPlaceWithUnnamedReadersTest() {
+    Photo source = Model.Brighten(21, packed, "Readers");
+    Model.updateDirectory("Readers", source);
+    Photo view = Model.HorizontalFlip(source, "ReadersView");
+    Photo expected = Model.Brighten(0, view, "Expected");
+    Controller.commandExecutor("sepia Readers Readers");
+    assertEquals(expected, view);
+    assertEquals(Model.Sepia(source, "Sepia"), Model.getImagePhoto("Readers"));
+
+    Photo other = Model.Brighten(33, packed, "Readers2");
+    Model.updateDirectory("Readers2", other);
+    Model.setStorageMode(StorageMode.TILED);
+    Photo tiled = Controller.Load("resources/sample-png.png", "ReadersTiled");
+    Photo combined = Model.Combine("ReadersCombined", tiled, other, other);
+    assertTrue(combined instanceof TiledPhoto);
+    Controller.commandExecutor("sepia Readers2 Readers2");
+    assertEquals(Model.Combine("Expected", packed, other, other), combined);
+    assertEquals(Model.Sepia(other, "Sepia"), Model.getImagePhoto("Readers2"));
+  }
+
+  @Test
+  public void TiledLoadReadsFileOnceTest() throws IOException {
+    File copy = File.createTempFile("tiled", ".png");
+    Files.copy(Paths.get("resources/sample-png.png"), copy.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    Model.setStorageMode(StorageMode.TILED);
+    Photo tiled = Controller.Load(copy.getPath(), "TiledCopy");
+    assertTrue(tiled instanceof TiledPhoto);
+    assertTrue(copy.delete());
+    Model.setTileCache(1);
+    assertEquals(packed, tiled);
+  }
+
+  @Test
+  public void TileCacheCapacityTest() {
+    assertTrue(tileCache >= 16);
+    Controller.commandExecutor("storage tiled 2");
+    assertEquals(2, Model.getTileCache());
+    assertEquals(StorageMode.TILED, Model.getStorageMode());
+    int[] computed = new int[1];
+    TiledPhoto tiled = new TiledPhoto("Counted", 3 * 256, 256,
+        (startX, startY, w, h, rgbArray, offset, scansize) -> computed[0]++);
+    tiled.getRGB(0, 0);
+    tiled.getRGB(256, 0);
+    tiled.getRGB(0, 0);
+    assertEquals(2, computed[0]);
+    tiled.getRGB(512, 0);
+    tiled.getRGB(256, 0);
+    assertEquals(4, computed[0]);
+    Controller.commandExecutor("storage tiled 0");
+    assertEquals(2, Model.getTileCache());
+    try {
+      Model.setTileCache(0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals(2, Model.getTileCache());
+    }
+  }
+
+  @Test
+  public void ParallelTiledWritesTest() throws InterruptedException {
+    CountDownLatch computing = new CountDownLatch(2);
+    TiledPhoto tiled = new TiledPhoto("Tiled", 256, 256,
+        (startX, startY, w, h, rgbArray, offset, scansize) -> {
+          computing.countDown();
+          try {
+            computing.await(1, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    Thread[] writers = new Thread[2];
+    for (int t = 0; t < 2; t++) {
+      int row = t;
+      int[] pixels = new int[256];
+      Arrays.fill(pixels, 0x102030 * (t + 1));
+      writers[t] = new Thread(() -> tiled.setRGB(0, row, 256, 1, pixels, 0, 256));
+      writers[t].start();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    assertEquals(0x102030, tiled.getRGB(255, 0));
+    assertEquals(0x204060, tiled.getRGB(255, 1));
+    Photo expected = Model.Thumbnail(packed, "PackedThumb", 100);
+    Model.setStorageMode(StorageMode.TILED);
+    Model.setParallelism(4);
+    Photo source = Controller.Load("resources/sample-png.png", "TiledPNG");
+    assertEquals(expected, Model.Thumbnail(source, "TiledThumb", 100));
+  }
+
+  @Test
+  public void ParallelViewWritesTest() throws Exception {
+    for (int round = 0; round < 50; round++) {
+      Photo view = Model.HorizontalFlip(packed, "View");
+      assertTrue(view instanceof ViewPhoto);
+      CyclicBarrier start = new CyclicBarrier(4);
+      Thread[] writers = new Thread[4];
+      for (int t = 0; t < 4; t++) {
+        int row = t;
+        writers[t] = new Thread(() -> {
+          try {
+            start.await();
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+          view.setRGB(0, row, 0x010203 * (row + 1));
+        });
+        writers[t].start();
+      }
+      for (Thread writer : writers) {
+        writer.join();
+      }
+      for (int t = 0; t < 4; t++) {
+        assertEquals(0x010203 * (t + 1), view.getRGB(0, t));
+      }
+      assertEquals(packed.getRGB(packed.getWidth() - 2, 0), view.getRGB(1, 0));
+    }
+  }
+
+  @Test
+  public void ParallelOperationsTest() {
+    Photo[] expected = {
+        Model.AdjustComponent(packed, "Luma", "luma"), Model.Brighten(45, packed, "Bright"),
+        Model.Sepia(packed, "Sepia"), Model.Blur(packed, "Blur"), Model.Sharpen(packed, "Sharp"),
+        Model.Combine("Combined", Model.Blur(packed, "Blur"), packed, packed),
+        Model.AdjustComponent(planar, "Luma", "luma"), Model.Sepia(planar, "Sepia")
+    };
+    Model.setParallelism(4);
+    assertEquals(4, Model.getParallelism());
+    Photo[] parallel = {
+        Model.AdjustComponent(packed, "Luma", "luma"), Model.Brighten(45, packed, "Bright"),
+        Model.Sepia(packed, "Sepia"), Model.Blur(packed, "Blur"), Model.Sharpen(packed, "Sharp"),
+        Model.Combine("Combined", Model.Blur(packed, "Blur"), packed, packed),
+        Model.AdjustComponent(planar, "Luma", "luma"), Model.Sepia(planar, "Sepia")
+    };
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], parallel[i]);
+    }
+    Controller.commandExecutor("parallelism 1");
+    assertEquals(1, Model.getParallelism());
+  }
+}